@@ -0,0 +1,160 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * This class imports a file of bookings in one transaction, with set-based
+ * SQL only. The file is copied as text into a temporary staging table;
+ * each check then marks the rows it rejects with a reason in one UPDATE,
+ * the accepted rows go into RoomBookings with one INSERT, and the rejected
+ * ones are written to a reject file with their line and reason.
+ *
+ * The file is CSV with a header line and the columns
+ * customerID,hotelID,roomNumber,bookingDate. Only dates from today on can
+ * be imported: earlier ones may fall in an archived year, which no
+ * partition of RoomBookings holds, and would fail the whole file.
+ */
+public class BookingImport {
+
+   // checks in the order they run; a row gets the reason of the first check it fails.
+   static final String[][] CHECKS = {
+      { "malformed row",
+        "customer IS NULL OR hotel IS NULL OR room IS NULL OR day IS NULL" },
+      { "date in the past",
+        "day < CURRENT_DATE" },
+      { "unknown customer",
+        "NOT EXISTS (SELECT 1 FROM Users u WHERE u.userID = customer)" },
+      { "unknown room",
+        "NOT EXISTS (SELECT 1 FROM Rooms r WHERE r.hotelID = hotel AND r.roomNumber = room)" },
+      { "room already booked",
+        "EXISTS (SELECT 1 FROM RoomBookings b WHERE b.hotelID = hotel AND b.roomNumber = room AND b.bookingDate = day)" },
+   };
+
+   private final Connection _connection;
+
+   public BookingImport(Connection connection) {
+      this._connection = connection;
+   }
+
+   /**
+    * Imports the bookings of the file.
+    *
+    * @param file the bookings to import
+    * @param rejects where the rejected rows are written, as CSV
+    * @return {accepted rows, rejected rows}
+    * @throws java.sql.SQLException when the import failed; nothing is imported then
+    * @throws java.io.IOException when a file could not be read or written
+    */
+   public int[] run(File file, File rejects) throws SQLException, IOException {
+      boolean autoCommit = _connection.getAutoCommit();
+      _connection.setAutoCommit(false);
+      Statement stmt = _connection.createStatement();
+      try {
+         stmt.executeUpdate(
+            "CREATE TEMP TABLE booking_import (lineNumber serial, customerID text, hotelID text, roomNumber text, " +
+            "bookingDate text, customer integer, hotel integer, room integer, day date, reason text) ON COMMIT DROP");
+         copyIn(stmt, file);
+
+         // parse every row at once; what does not parse stays NULL.
+         stmt.executeUpdate(
+            "UPDATE booking_import SET " +
+            "customer = CASE WHEN customerID ~ '^\\s*[0-9]{1,9}\\s*$' THEN trim(customerID)::integer END, " +
+            "hotel = CASE WHEN hotelID ~ '^\\s*[0-9]{1,9}\\s*$' THEN trim(hotelID)::integer END, " +
+            "room = CASE WHEN roomNumber ~ '^\\s*[0-9]{1,9}\\s*$' THEN trim(roomNumber)::integer END, " +
+            "day = try_date(bookingDate)");
+         // temporary tables are never analyzed automatically; the checks below join on this one.
+         stmt.executeUpdate("ANALYZE booking_import");
+
+         // partitions for dates the regular maintenance does not cover yet, created before the
+         // lock so the lock is not taken and then upgraded by CREATE TABLE.
+         stmt.executeQuery(
+            "SELECT roombookings_ensure_partition(m) FROM (SELECT DISTINCT date_trunc('month', day)::date AS m " +
+            "FROM booking_import WHERE customer IS NOT NULL AND hotel IS NOT NULL AND room IS NOT NULL " +
+            "AND day >= CURRENT_DATE) months");
+
+         // other sessions may still book until RoomBookings is locked; reads go on.
+         stmt.executeUpdate("LOCK TABLE RoomBookings IN SHARE ROW EXCLUSIVE MODE");
+         for (String[] check : CHECKS)
+            stmt.executeUpdate(String.format(
+               "UPDATE booking_import SET reason = '%s' WHERE reason IS NULL AND (%s)", check[0], check[1]));
+         // within the file, the first line booking a room night wins.
+         stmt.executeUpdate(
+            "UPDATE booking_import i SET reason = 'same room and date as line ' || (d.firstLine + 1) " +
+            "FROM (SELECT lineNumber, first_value(lineNumber) OVER " +
+            "(PARTITION BY hotel, room, day ORDER BY lineNumber) AS firstLine " +
+            "FROM booking_import WHERE reason IS NULL) d " +
+            "WHERE i.lineNumber = d.lineNumber AND d.firstLine <> d.lineNumber");
+
+         int accepted = stmt.executeUpdate(
+            "INSERT INTO RoomBookings (bookingDate, hotelID, roomNumber, customerID) " +
+            "SELECT day, hotel, room, customer FROM booking_import WHERE reason IS NULL ORDER BY lineNumber");
+         int rejected = writeRejects(stmt, rejects);
+         _connection.commit();
+         return new int[] { accepted, rejected };
+      } catch (SQLException e) {
+         _connection.rollback();
+         throw e;
+      } catch (IOException e) {
+         _connection.rollback();
+         throw e;
+      } finally {
+         stmt.close();
+         _connection.setAutoCommit(autoCommit);
+      }
+   }//end run
+
+   // the file goes to the staging table through COPY FROM STDIN when the
+   // driver supports it, otherwise the server reads it from the same path.
+   private void copyIn(Statement stmt, File file) throws SQLException, IOException {
+      String copy = "COPY booking_import (customerID, hotelID, roomNumber, bookingDate) FROM %s WITH DELIMITER ',' CSV HEADER";
+      if (!PgCopy.supported(_connection)) {
+         stmt.executeUpdate(String.format(copy, "'" + file.getAbsolutePath().replace("'", "''") + "'"));
+         return;
+      }
+      Reader reader = new FileReader(file);
+      try {
+         PgCopy.copyIn(_connection, String.format(copy, "STDIN"), reader);
+      } finally {
+         reader.close();
+      }
+   }//end copyIn
+
+   private static int writeRejects(Statement stmt, File rejects) throws SQLException, IOException {
+      ResultSet rs = stmt.executeQuery(
+         "SELECT lineNumber + 1, customerID, hotelID, roomNumber, bookingDate, reason " +
+         "FROM booking_import WHERE reason IS NOT NULL ORDER BY lineNumber");
+      PrintStream out = new PrintStream(rejects, "UTF-8");
+      int rejected = 0;
+      try {
+         out.println("line,customerID,hotelID,roomNumber,bookingDate,reason");
+         while (rs.next()) {
+            StringBuilder line = new StringBuilder(rs.getString(1));
+            for (int i = 2; i <= 6; i++)
+               line.append(',').append(csv(rs.getString(i)));
+            out.println(line);
+            rejected++;
+         }
+      } finally {
+         out.close();
+         rs.close();
+      }
+      if (out.checkError())
+         throw new IOException("Could not write " + rejects);
+      return rejected;
+   }//end writeRejects
+
+   private static String csv(String value) {
+      if (value == null)
+         return "";
+      if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+         return value;
+      return '"' + value.replace("\"", "\"\"") + '"';
+   }
+
+}//end BookingImport
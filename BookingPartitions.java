@@ -0,0 +1,111 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps the RoomBookings partitions in step with the calendar.
+ * A background thread runs every intervalHours. It creates the monthly
+ * partitions up to monthsAhead months from today with
+ * roombookings_maintain_partitions(). When keepYears is positive, it also
+ * moves the partitions that ended keepYears or more ago into the archive
+ * schema with archive_roombookings_partitions(); Hotel only asks for that
+ * when -Dhotel.bookings.keepYears is given.
+ *
+ * covers() tells whether a booking date is known to have its partition
+ * already; for other dates the caller creates it first with
+ * roombookings_ensure_partition().
+ */
+public class BookingPartitions {
+
+   private final Connection _connection;
+   private final int _monthsAhead;
+   private final int _keepYears;
+   private final ScheduledExecutorService _scheduler;
+   // first day not known to have its partition, or null before the first run.
+   private volatile LocalDate _readyUntil = null;
+
+   /**
+    * Creates the job and schedules its first run right away.
+    *
+    * @param connection connection owned by the job from now on
+    * @param monthsAhead months after the current one kept ready
+    * @param keepYears years of bookings kept in RoomBookings; 0 never archives
+    * @param intervalHours hours between runs
+    */
+   public BookingPartitions(Connection connection, int monthsAhead, int keepYears, long intervalHours) {
+      this._connection = connection;
+      this._monthsAhead = monthsAhead;
+      this._keepYears = keepYears;
+      this._scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "RoomBookings partitions");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      this._scheduler.scheduleWithFixedDelay(new Runnable() {
+         public void run() {
+            try {
+               maintain();
+            } catch (SQLException e) {
+               System.err.println("Booking partitions not maintained: " + e.getMessage());
+            }
+         }
+      }, 0, intervalHours, TimeUnit.HOURS);
+   }
+
+   /**
+    * Creates the coming partitions and archives the old ones.
+    *
+    * @return the number of partitions archived
+    */
+   public int maintain() throws SQLException {
+      LocalDate today = LocalDate.now();
+      Statement stmt = _connection.createStatement();
+      try {
+         stmt.executeQuery(String.format("SELECT roombookings_maintain_partitions(%d)", _monthsAhead));
+         // the months up to the last one made ready, a month short in case the clocks disagree.
+         _readyUntil = today.withDayOfMonth(1).plusMonths(_monthsAhead);
+         if (_keepYears <= 0)
+            return 0;
+         ResultSet rs = stmt.executeQuery(String.format(
+            "SELECT archive_roombookings_partitions('%s'::date)", today.minusYears(_keepYears)));
+         rs.next();
+         return rs.getInt(1);
+      } finally {
+         stmt.close();
+      }
+   }//end maintain
+
+   /**
+    * @return whether the partition of the day is known to exist
+    */
+   public boolean covers(LocalDate day) {
+      LocalDate readyUntil = _readyUntil;
+      return readyUntil != null && day.isBefore(readyUntil);
+   }
+
+   /**
+    * Stops the job, letting a running pass finish, and closes its connection.
+    */
+   public void close() {
+      _scheduler.shutdown();
+      try {
+         _scheduler.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      try {
+         _connection.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }//end close
+
+}//end BookingPartitions
@@ -0,0 +1,215 @@
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * This class keeps a column-wise copy of RoomBookings in primitive arrays,
+ * sorted by hotelID, then bookingDate, then bookingID. Dates are stored as
+ * epoch days. Reports over one hotel work on a contiguous slice of the
+ * arrays instead of going back to the DBMS.
+ *
+ * The snapshot is read through a cursor, FETCH_SIZE rows at a time. A
+ * bookingID is taken at insert but becomes visible at commit, so a higher
+ * one may be read before a lower one: refresh() instead remembers the
+ * oldest transaction still running when it last read (the xmin of its
+ * snapshot) and reads again only the rows inserted by that transaction or
+ * later ones, skipping those already held. Every row records its inserting
+ * transaction in the indexed insertTxid column, so that is a range scan of
+ * RoomBookings_insert_txid_idx. It also picks up rows ShardTool moves in
+ * with their old bookingIDs, as they get the txid of the move. Rows that leave
+ * RoomBookings, archived or moved away, are dropped by a full reload every
+ * RELOAD_MILLIS.
+ */
+public class BookingSnapshot {
+
+   // rows per round trip while reading the cursor.
+   static final int FETCH_SIZE = 10000;
+
+   static final String SELECT =
+      "SELECT bookingID, customerID, hotelID, roomNumber, bookingDate - DATE '1970-01-01' FROM RoomBookings";
+   static final String ORDER = " ORDER BY hotelID, bookingDate, bookingID";
+   // how often refresh() reads everything again instead of the recent rows.
+   static final long RELOAD_MILLIS = 60 * 60 * 1000;
+
+   private int size = 0;
+   private int[] bookingID = new int[0];
+   private int[] customerID = new int[0];
+   private int[] hotelID = new int[0];
+   private int[] roomNumber = new int[0];
+   private int[] bookingDate = new int[0];
+   // xmin of the snapshot the rows were last read under: rows of older transactions are all held.
+   private long horizon = 0;
+   private long loadedAt = 0;
+
+   /**
+    * Reads the whole of RoomBookings.
+    *
+    * @param connection connection to read with
+    * @return the loaded snapshot
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public static BookingSnapshot load(Connection connection) throws SQLException {
+      BookingSnapshot snapshot = read(connection, SELECT + ORDER);
+      snapshot.loadedAt = System.currentTimeMillis();
+      return snapshot;
+   }
+
+   /**
+    * Adds the bookings committed since the last load or refresh, or reads
+    * everything again once RELOAD_MILLIS have passed since the last load.
+    *
+    * @param connection connection to read with
+    * @return the number of bookings added, less those dropped by a reload
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public synchronized int refresh(Connection connection) throws SQLException {
+      if (System.currentTimeMillis() - loadedAt >= RELOAD_MILLIS) {
+         BookingSnapshot all = load(connection);
+         int added = all.size - size;
+         size = all.size;
+         bookingID = all.bookingID;
+         customerID = all.customerID;
+         hotelID = all.hotelID;
+         roomNumber = all.roomNumber;
+         bookingDate = all.bookingDate;
+         horizon = all.horizon;
+         loadedAt = all.loadedAt;
+         return added;
+      }
+      // txids carry an epoch and never wrap: rows of the horizon transaction or a later one.
+      BookingSnapshot recent = read(connection, String.format(
+         "%s WHERE insertTxid >= '%d'%s", SELECT, horizon, ORDER));
+      BookingSnapshot added = new BookingSnapshot();
+      added.grow(recent.size);
+      for (int i = 0; i < recent.size; i++) {
+         if (contains(recent.hotelID[i], recent.bookingDate[i], recent.bookingID[i]))
+            continue;
+         int k = added.size++;
+         added.bookingID[k] = recent.bookingID[i];
+         added.customerID[k] = recent.customerID[i];
+         added.hotelID[k] = recent.hotelID[i];
+         added.roomNumber[k] = recent.roomNumber[i];
+         added.bookingDate[k] = recent.bookingDate[i];
+      }
+      if (added.size > 0)
+         mergeFrom(added);
+      horizon = recent.horizon;
+      return added.size;
+   }
+
+   // whether the booking is held already.
+   private boolean contains(int hotel, int day, int booking) {
+      for (int i = lowerBound(hotel, day); i < size && hotelID[i] == hotel && bookingDate[i] == day; i++)
+         if (bookingID[i] == booking)
+            return true;
+      return false;
+   }
+
+   // reads the rows of the query, which must come back in snapshot order.
+   private static BookingSnapshot read(Connection connection, String query) throws SQLException {
+      BookingSnapshot rows = new BookingSnapshot();
+      // the driver only streams with a cursor inside a transaction.
+      boolean autoCommit = connection.getAutoCommit();
+      connection.setAutoCommit(false);
+      Statement stmt = connection.createStatement();
+      try {
+         // taken before the query: every transaction older than this is visible to it.
+         ResultSet xmin = stmt.executeQuery("SELECT txid_snapshot_xmin(txid_current_snapshot())");
+         xmin.next();
+         rows.horizon = xmin.getLong(1);
+         xmin.close();
+         stmt.setFetchSize(FETCH_SIZE);
+         ResultSet rs = stmt.executeQuery(query);
+         while (rs.next()) {
+            if (rows.size == rows.bookingID.length)
+               rows.grow(Math.max(1024, rows.size * 2));
+            int i = rows.size++;
+            rows.bookingID[i] = rs.getInt(1);
+            rows.customerID[i] = rs.getInt(2);
+            rows.hotelID[i] = rs.getInt(3);
+            rows.roomNumber[i] = rs.getInt(4);
+            rows.bookingDate[i] = rs.getInt(5);
+         }
+         rs.close();
+         connection.commit();
+      } finally {
+         stmt.close();
+         connection.setAutoCommit(autoCommit);
+      }
+      return rows;
+   }
+
+   private void grow(int capacity) {
+      bookingID = Arrays.copyOf(bookingID, capacity);
+      customerID = Arrays.copyOf(customerID, capacity);
+      hotelID = Arrays.copyOf(hotelID, capacity);
+      roomNumber = Arrays.copyOf(roomNumber, capacity);
+      bookingDate = Arrays.copyOf(bookingDate, capacity);
+   }
+
+   // merges the sorted rows of other into this snapshot.
+   private void mergeFrom(BookingSnapshot other) {
+      int total = size + other.size;
+      int[] b = new int[total], c = new int[total], h = new int[total], r = new int[total], d = new int[total];
+      int i = 0, j = 0;
+      for (int k = 0; k < total; k++) {
+         boolean mine = j >= other.size
+            || (i < size && compare(hotelID[i], bookingDate[i], bookingID[i],
+                                    other.hotelID[j], other.bookingDate[j], other.bookingID[j]) <= 0);
+         BookingSnapshot from = mine ? this : other;
+         int at = mine ? i++ : j++;
+         b[k] = from.bookingID[at];
+         c[k] = from.customerID[at];
+         h[k] = from.hotelID[at];
+         r[k] = from.roomNumber[at];
+         d[k] = from.bookingDate[at];
+      }
+      bookingID = b;
+      customerID = c;
+      hotelID = h;
+      roomNumber = r;
+      bookingDate = d;
+      size = total;
+   }
+
+   private static int compare(int h1, int d1, int b1, int h2, int d2, int b2) {
+      if (h1 != h2) return h1 < h2 ? -1 : 1;
+      if (d1 != d2) return d1 < d2 ? -1 : 1;
+      return b1 < b2 ? -1 : (b1 == b2 ? 0 : 1);
+   }
+
+   /**
+    * @return the index of the first booking at or after (hotel, day)
+    */
+   public synchronized int lowerBound(int hotel, int day) {
+      int lo = 0, hi = size;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (hotelID[mid] < hotel || (hotelID[mid] == hotel && bookingDate[mid] < day))
+            lo = mid + 1;
+         else
+            hi = mid;
+      }
+      return lo;
+   }
+
+   /**
+    * @return the number of bookings of the hotel with fromDay <= bookingDate <= toDay
+    */
+   public synchronized int countBookings(int hotel, int fromDay, int toDay) {
+      return lowerBound(hotel, toDay + 1) - lowerBound(hotel, fromDay);
+   }
+
+   public synchronized int size() { return size; }
+
+   // column accessors for reports: only the first size() entries are bookings
+   // and the arrays must not be modified.
+   int[] bookingIDs() { return bookingID; }
+   int[] customerIDs() { return customerID; }
+   int[] hotelIDs() { return hotelID; }
+   int[] roomNumbers() { return roomNumber; }
+   int[] bookingDates() { return bookingDate; }
+
+}//end BookingSnapshot
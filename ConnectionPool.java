@@ -0,0 +1,166 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * This class hands out up to size physical connections, opened on first
+ * need through the given Factory. A borrower that finds every connection
+ * in use waits until one is released.
+ *
+ * A connection that was closed, or that has been idle for more than
+ * VALIDATE_IDLE_MILLIS and fails a trivial query, is not handed out: it is
+ * closed and a new one is opened in its place. The driver predates
+ * Connection.isValid(), hence the query. Borrowers that see a connection
+ * break while using it give it back with discard() instead of release().
+ */
+public class ConnectionPool {
+
+   // how long a connection may sit idle before it is checked with a query on borrow.
+   static final long VALIDATE_IDLE_MILLIS = 30000;
+
+   public interface Factory {
+      Connection open() throws SQLException;
+   }
+
+   // an idle connection and since when it is idle, or a free place for a new connection.
+   private static class Slot {
+      final Connection connection;
+      final long idleSince = System.currentTimeMillis();
+
+      Slot(Connection connection) {
+         this.connection = connection;
+      }
+   }
+
+   private final Factory _factory;
+   private final int _size;
+   private final long _validateIdleMillis;
+   // idle connections first, the most recently released one on top; free places at the end.
+   private final BlockingDeque<Slot> _slots;
+   private final List<Connection> _all = new ArrayList<Connection>();
+
+   public ConnectionPool(Factory factory, int size) {
+      this(factory, size, VALIDATE_IDLE_MILLIS);
+   }
+
+   ConnectionPool(Factory factory, int size, long validateIdleMillis) {
+      this._factory = factory;
+      this._size = size;
+      this._validateIdleMillis = validateIdleMillis;
+      this._slots = new LinkedBlockingDeque<Slot>(size);
+      for (int i = 0; i < size; i++)
+         _slots.add(new Slot(null));
+   }
+
+   /**
+    * @return an idle connection that still works, a new one if the pool is
+    * not full yet or an idle one had broken
+    * @throws java.sql.SQLException when failed to make a connection
+    */
+   public Connection borrow() throws SQLException {
+      Slot slot;
+      try {
+         slot = _slots.takeFirst();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for a connection");
+      }
+      if (slot.connection != null) {
+         if (usable(slot))
+            return slot.connection;
+         forget(slot.connection);
+      }
+      try {
+         Connection connection = _factory.open();
+         synchronized (_all) {
+            _all.add(connection);
+         }
+         return connection;
+      } catch (SQLException e) {
+         _slots.offerLast(new Slot(null));
+         throw e;
+      }
+   }//end borrow
+
+   /**
+    * Gives back a borrowed connection; a closed one is discarded.
+    */
+   public void release(Connection connection) {
+      boolean closed;
+      try {
+         closed = connection.isClosed();
+      } catch (SQLException e) {
+         closed = true;
+      }
+      if (closed)
+         discard(connection);
+      else
+         _slots.offerFirst(new Slot(connection));
+   }
+
+   /**
+    * Gives back a borrowed connection that broke: it is closed, and the
+    * next borrower gets a new one.
+    */
+   public void discard(Connection connection) {
+      forget(connection);
+      _slots.offerLast(new Slot(null));
+   }
+
+   public int size() {
+      return _size;
+   }
+
+   // false when the connection was closed, or has been idle long and fails a query.
+   private boolean usable(Slot slot) {
+      try {
+         if (slot.connection.isClosed())
+            return false;
+         if (System.currentTimeMillis() - slot.idleSince < _validateIdleMillis)
+            return true;
+         Statement stmt = slot.connection.createStatement();
+         try {
+            stmt.execute("SELECT 1");
+         } finally {
+            stmt.close();
+         }
+         return true;
+      } catch (SQLException e) {
+         return false;
+      }
+   }//end usable
+
+   // closes the connection and stops tracking it.
+   private void forget(Connection connection) {
+      synchronized (_all) {
+         _all.remove(connection);
+      }
+      try {
+         connection.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }
+
+   /**
+    * Closes every connection the pool has opened.
+    */
+   public void close() {
+      synchronized (_all) {
+         for (Connection connection : _all) {
+            try {
+               connection.close();
+            } catch (SQLException e) {
+               // ignored.
+            }
+         }
+         _all.clear();
+      }
+      _slots.clear();
+   }//end close
+
+}//end ConnectionPool
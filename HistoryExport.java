@@ -0,0 +1,344 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class streams the bookings, repairs or room updates of a hotel in a
+ * date range into a file, gzip compressed when the file name ends in .gz.
+ * Nothing is held in memory beyond one row group, whatever the range.
+ *
+ * CSV goes through COPY ... TO STDOUT when the driver supports it, and is
+ * otherwise written from a cursor declared on the server and read with
+ * FETCH, ROW_GROUP rows at a time, so memory stays bounded also with
+ * drivers ignoring the fetch size. The columnar format reads the same
+ * cursor and writes each column of a group of ROW_GROUP rows together:
+ *
+ *   "HCOL" version:byte columns:int (name:UTF type:byte)*
+ *   (rows:int (length:int nulls:bitmap values)*)* 0:int
+ *
+ * where the values of the non-null rows are zigzag varints of the delta to
+ * the previous value for INT, DATE (epoch day) and TIMESTAMP (epoch
+ * millis), and a varint length and UTF-8 bytes for TEXT. toCsv() decodes
+ * such a file.
+ */
+public class HistoryExport {
+
+   public enum Table {
+      BOOKINGS("SELECT bookingID, customerID, hotelID, roomNumber, bookingDate FROM RoomBookings " +
+               "WHERE hotelID = '%d' AND bookingDate BETWEEN '%s'::date AND '%s'::date ORDER BY bookingDate, bookingID"),
+      REPAIRS("SELECT repairID, companyID, hotelID, roomNumber, repairDate FROM RoomRepairs " +
+              "WHERE hotelID = '%d' AND repairDate BETWEEN '%s'::date AND '%s'::date ORDER BY repairDate, repairID"),
+      UPDATES("SELECT updateNumber, managerID, hotelID, roomNumber, updatedOn FROM RoomUpdatesLog " +
+              "WHERE hotelID = '%d' AND updatedOn >= '%s'::date AND updatedOn < '%s'::date + 1 ORDER BY updatedOn, updateNumber");
+
+      final String query;
+
+      Table(String query) {
+         this.query = query;
+      }
+   }
+
+   public enum Format { CSV, COLUMNAR }
+
+   static final byte[] MAGIC = { 'H', 'C', 'O', 'L' };
+   static final byte VERSION = 1;
+   static final byte INT = 0, DATE = 1, TIMESTAMP = 2, TEXT = 3;
+
+   // rows per row group of the columnar format, and per FETCH of the cursor.
+   static final int ROW_GROUP = 1 << 16;
+   static final int BUFFER_SIZE = 1 << 16;
+
+   private final Connection _connection;
+
+   public HistoryExport(Connection connection) {
+      this._connection = connection;
+   }
+
+   /**
+    * Writes the rows of the hotel from the first to the last day of the range.
+    *
+    * @return the number of rows written
+    * @throws java.sql.SQLException when failed to read the rows
+    * @throws java.io.IOException when failed to write the file
+    */
+   public long write(Table table, int hotelID, LocalDate from, LocalDate to, Format format, File file)
+         throws SQLException, IOException {
+      String query = String.format(table.query, hotelID, from, to);
+      OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+      if (file.getName().endsWith(".gz"))
+         out = new GZIPOutputStream(out, BUFFER_SIZE);
+      try {
+         if (format == Format.CSV && PgCopy.supported(_connection))
+            return PgCopy.copyOut(_connection, "COPY (" + query + ") TO STDOUT WITH CSV HEADER", out);
+         boolean autoCommit = _connection.getAutoCommit();
+         // a cursor only lives inside a transaction.
+         _connection.setAutoCommit(false);
+         Statement stmt = _connection.createStatement();
+         try {
+            // the cursor ends with the transaction.
+            Cursor cursor = new Cursor(stmt, query);
+            return format == Format.CSV ? writeCsv(cursor, out) : writeColumnar(cursor, new DataOutputStream(out));
+         } finally {
+            stmt.close();
+            _connection.commit();
+            _connection.setAutoCommit(autoCommit);
+         }
+      } finally {
+         out.close();
+      }
+   }//end write
+
+   /*
+    * Rows of a query through a server-side cursor, fetched ROW_GROUP at a
+    * time; only the batch of the current row is held.
+    **/
+   static class Cursor {
+      private final Statement _stmt;
+      private ResultSet _rs;
+      private int _fetched;
+
+      Cursor(Statement stmt, String query) throws SQLException {
+         this._stmt = stmt;
+         stmt.executeUpdate("DECLARE history_export NO SCROLL CURSOR FOR " + query);
+         fetch();
+      }
+
+      private void fetch() throws SQLException {
+         _rs = _stmt.executeQuery("FETCH " + ROW_GROUP + " FROM history_export");
+         _fetched = 0;
+      }
+
+      ResultSetMetaData metaData() throws SQLException {
+         return _rs.getMetaData();
+      }
+
+      // moves to the next row, fetching the next batch after a full one; false after the last row.
+      boolean next() throws SQLException {
+         if (_rs.next()) {
+            _fetched++;
+            return true;
+         }
+         if (_fetched < ROW_GROUP)
+            return false;
+         _rs.close();
+         fetch();
+         return next();
+      }
+
+      // the current row.
+      ResultSet row() {
+         return _rs;
+      }
+   }//end Cursor
+
+   private static long writeCsv(Cursor cursor, OutputStream out) throws SQLException, IOException {
+      ResultSetMetaData rsmd = cursor.metaData();
+      int numCol = rsmd.getColumnCount();
+      StringBuilder line = new StringBuilder();
+      for (int i = 1; i <= numCol; i++)
+         line.append(i > 1 ? "," : "").append(rsmd.getColumnName(i));
+      line.append('\n');
+      out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+      long rows = 0;
+      while (cursor.next()) {
+         ResultSet rs = cursor.row();
+         line.setLength(0);
+         for (int i = 1; i <= numCol; i++)
+            line.append(i > 1 ? "," : "").append(csv(rs.getString(i)));
+         line.append('\n');
+         out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+         rows++;
+      }
+      return rows;
+   }//end writeCsv
+
+   private static String csv(String value) {
+      if (value == null)
+         return "";
+      if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+         return value;
+      return '"' + value.replace("\"", "\"\"") + '"';
+   }
+
+   private static long writeColumnar(Cursor cursor, DataOutputStream out) throws SQLException, IOException {
+      ResultSetMetaData rsmd = cursor.metaData();
+      int numCol = rsmd.getColumnCount();
+      byte[] types = new byte[numCol];
+      out.write(MAGIC);
+      out.writeByte(VERSION);
+      out.writeInt(numCol);
+      for (int c = 0; c < numCol; c++) {
+         switch (rsmd.getColumnType(c + 1)) {
+            case Types.INTEGER: case Types.SMALLINT: case Types.BIGINT: types[c] = INT; break;
+            case Types.DATE: types[c] = DATE; break;
+            case Types.TIMESTAMP: types[c] = TIMESTAMP; break;
+            default: types[c] = TEXT; break;
+         }
+         out.writeUTF(rsmd.getColumnName(c + 1));
+         out.writeByte(types[c]);
+      }
+
+      // one row group: the values of each column, and which rows are null.
+      long[][] numbers = new long[numCol][ROW_GROUP];
+      String[][] texts = new String[numCol][];
+      boolean[][] nulls = new boolean[numCol][ROW_GROUP];
+      for (int c = 0; c < numCol; c++)
+         if (types[c] == TEXT)
+            texts[c] = new String[ROW_GROUP];
+      ByteArrayOutputStream column = new ByteArrayOutputStream();
+      long rows = 0;
+      boolean more = true;
+      while (more) {
+         int n = 0;
+         while (n < ROW_GROUP && (more = cursor.next())) {
+            ResultSet rs = cursor.row();
+            for (int c = 0; c < numCol; c++) {
+               switch (types[c]) {
+                  case INT: numbers[c][n] = rs.getLong(c + 1); break;
+                  case DATE:
+                     Date date = rs.getDate(c + 1);
+                     numbers[c][n] = date == null ? 0 : date.toLocalDate().toEpochDay();
+                     break;
+                  case TIMESTAMP:
+                     Timestamp time = rs.getTimestamp(c + 1);
+                     numbers[c][n] = time == null ? 0 : time.getTime();
+                     break;
+                  default: texts[c][n] = rs.getString(c + 1); break;
+               }
+               nulls[c][n] = rs.wasNull();
+            }
+            n++;
+         }
+         if (n == 0)
+            break;
+         out.writeInt(n);
+         for (int c = 0; c < numCol; c++) {
+            column.reset();
+            byte[] bitmap = new byte[(n + 7) / 8];
+            for (int r = 0; r < n; r++)
+               if (nulls[c][r])
+                  bitmap[r >> 3] |= 1 << (r & 7);
+            column.write(bitmap);
+            long previous = 0;
+            for (int r = 0; r < n; r++) {
+               if (nulls[c][r])
+                  continue;
+               if (types[c] == TEXT) {
+                  byte[] bytes = texts[c][r].getBytes(StandardCharsets.UTF_8);
+                  writeVarLong(column, bytes.length);
+                  column.write(bytes);
+               } else {
+                  long delta = numbers[c][r] - previous;
+                  writeVarLong(column, (delta << 1) ^ (delta >> 63));
+                  previous = numbers[c][r];
+               }
+            }
+            out.writeInt(column.size());
+            column.writeTo(out);
+         }
+         rows += n;
+      }
+      out.writeInt(0);
+      out.flush();
+      return rows;
+   }//end writeColumnar
+
+   private static void writeVarLong(OutputStream out, long value) throws IOException {
+      while ((value & ~0x7FL) != 0) {
+         out.write((int) ((value & 0x7F) | 0x80));
+         value >>>= 7;
+      }
+      out.write((int) value);
+   }
+
+   private static long readVarLong(DataInputStream in) throws IOException {
+      long value = 0;
+      for (int shift = 0; ; shift += 7) {
+         int b = in.readUnsignedByte();
+         value |= (long) (b & 0x7F) << shift;
+         if ((b & 0x80) == 0)
+            return value;
+      }
+   }
+
+   /**
+    * Decodes a file in the columnar format and prints it as CSV, one row
+    * group at a time.
+    */
+   public static void toCsv(File file, PrintStream out) throws IOException {
+      InputStream stream = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+      if (file.getName().endsWith(".gz"))
+         stream = new GZIPInputStream(stream, BUFFER_SIZE);
+      DataInputStream in = new DataInputStream(stream);
+      try {
+         byte[] magic = new byte[MAGIC.length];
+         in.readFully(magic);
+         if (!new String(magic, StandardCharsets.US_ASCII).equals("HCOL") || in.readByte() != VERSION)
+            throw new IOException(file + " is not a columnar export");
+         int numCol = in.readInt();
+         byte[] types = new byte[numCol];
+         StringBuilder header = new StringBuilder();
+         for (int c = 0; c < numCol; c++) {
+            header.append(c > 0 ? "," : "").append(in.readUTF());
+            types[c] = in.readByte();
+         }
+         out.println(header);
+         String[][] values = new String[numCol][];
+         int n;
+         while ((n = in.readInt()) > 0) {
+            for (int c = 0; c < numCol; c++) {
+               in.readInt();
+               byte[] bitmap = new byte[(n + 7) / 8];
+               in.readFully(bitmap);
+               values[c] = new String[n];
+               long previous = 0;
+               for (int r = 0; r < n; r++) {
+                  if ((bitmap[r >> 3] & (1 << (r & 7))) != 0)
+                     continue;
+                  if (types[c] == TEXT) {
+                     byte[] bytes = new byte[(int) readVarLong(in)];
+                     in.readFully(bytes);
+                     values[c][r] = new String(bytes, StandardCharsets.UTF_8);
+                     continue;
+                  }
+                  long zigzag = readVarLong(in);
+                  previous += (zigzag >>> 1) ^ -(zigzag & 1);
+                  values[c][r] = types[c] == DATE ? LocalDate.ofEpochDay(previous).toString()
+                               : types[c] == TIMESTAMP ? new Timestamp(previous).toString()
+                               : Long.toString(previous);
+               }
+            }
+            for (int r = 0; r < n; r++) {
+               StringBuilder line = new StringBuilder();
+               for (int c = 0; c < numCol; c++)
+                  line.append(c > 0 ? "," : "").append(csv(values[c][r]));
+               out.println(line);
+            }
+         }
+      } finally {
+         in.close();
+      }
+   }//end toCsv
+
+}//end HistoryExport
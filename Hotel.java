@@ -29,6 +29,12 @@ import java.lang.Math;
 import java.text.SimpleDateFormat;
 import java.util.Scanner;
 import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 /**
  * This class defines a simple embedded SQL utility class that is designed to
  * work with PostgreSQL JDBC drivers.
@@ -39,6 +45,101 @@ public class Hotel {
    // reference to physical database connection.
    private Connection _connection = null;
 
+   // what the physical connection was opened with, for the extra connections.
+   private String _url = null;
+   private String _user = null;
+   private String _passwd = null;
+
+   // background writer of RoomUpdatesLog, started on the first room update.
+   private RoomUpdatesAuditWriter _auditWriter = null;
+   static final int AUDIT_QUEUE_CAPACITY = 10000;
+   static final int AUDIT_BATCH_SIZE = 500;
+
+   // background compaction of RoomUpdatesLog, started by startUpdatesRetention.
+   private RoomUpdatesRetention _updatesRetention = null;
+   // days of RoomUpdatesLog kept in full detail, unless -Dhotel.updates.keepDays says otherwise.
+   static final int UPDATES_KEEP_DAYS = 90;
+   static final int UPDATES_COMPACT_BATCH = 5000;
+   static final long UPDATES_COMPACT_INTERVAL_MINUTES = 60;
+
+   // counts the statements of each menu operation when -Dhotel.trace is given.
+   private OperationTracer _tracer = null;
+   // the other databases (shards) of this session, which follow its menu operations.
+   private List<Hotel> _shards = new ArrayList<Hotel>();
+   // menu operation of each user menu choice, as the tracer reports them.
+   static final String[] OPERATION_NAMES = {
+      null, "viewHotels", "viewRooms", "bookRooms", "viewRecentBookingsfromCustomer", "updateRoomInfo",
+      "viewRecentUpdates", "viewBookingHistoryofHotel", "viewRegularCustomers", "placeRoomRepairRequests",
+      "viewRoomRepairHistory", "findNearestAvailableRooms", "viewRoomsForStay", "viewRepairAnalytics",
+      "viewOccupancyReport", "bulkRepriceRooms", "importGroupBookings", "exportHistory" };
+
+   // routes reads of read-only operations to a replica, when one is configured.
+   private ReplicaRouter _router = null;
+   private boolean _readOnlyOperation = false;
+   // most replica lag, in milliseconds, before reads fall back to the primary.
+   static final long REPLICA_MAX_LAG_MILLIS = 5000;
+   // menu choices that never write; their reads may be served by the replica.
+   static final Set<Integer> READ_ONLY_OPERATIONS =
+      new HashSet<Integer>(Arrays.asList(1, 2, 4, 6, 7, 8, 10, 11, 12, 13, 14, 17));
+
+   // threads and connections of the asynchronous query helpers and of reports, per workload class,
+   // started on first use.
+   private WorkloadScheduler _scheduler = null;
+   // workload class of the current menu operation, and the one whose statement timeout the
+   // physical connection has.
+   private WorkloadScheduler.Workload _workload = WorkloadScheduler.Workload.INTERACTIVE;
+   private WorkloadScheduler.Workload _connectionWorkload = null;
+   // menu choices that are reports or bulk jobs; all others are interactive.
+   static final Set<Integer> REPORTING_OPERATIONS =
+      new HashSet<Integer>(Arrays.asList(7, 8, 10, 13, 14, 15, 16, 17));
+   // share of each workload class, unless -Dhotel.workload.<class>.connections, .queue or .timeoutMillis is given.
+   static final int INTERACTIVE_CONNECTIONS = 4;
+   static final int INTERACTIVE_QUEUE = 64;
+   static final long INTERACTIVE_TIMEOUT_MILLIS = 10 * 1000;
+   static final int REPORTING_CONNECTIONS = 2;
+   static final int REPORTING_QUEUE = 8;
+   static final long REPORTING_TIMEOUT_MILLIS = 5 * 60 * 1000;
+   // statement timeout of a history export, which streams a whole range in one statement,
+   // unless -Dhotel.workload.export.timeoutMillis is given.
+   static final long EXPORT_TIMEOUT_MILLIS = 60 * 60 * 1000;
+
+   // room price changes sent per statement by repriceRooms.
+   static final int REPRICE_CHUNK_SIZE = 1000;
+   // times bulkRepriceRooms re-reads and retries rooms changed meanwhile.
+   static final int REPRICE_RETRIES = 3;
+
+   // blocks of sequence values handed out by nextID, one allocator per sequence.
+   private final Map<String, IdAllocator> _idAllocators = new ConcurrentHashMap<String, IdAllocator>();
+   static final int ID_BLOCK_SIZE = 100;
+
+   // column copy of RoomBookings for reports, loaded on first use.
+   private BookingSnapshot _bookingSnapshot = null;
+
+   // background creation and archiving of RoomBookings partitions, started by startBookingPartitions.
+   private BookingPartitions _bookingPartitions = null;
+   // how many months of RoomBookings partitions are kept ready ahead of today.
+   static final int BOOKING_PARTITION_MONTHS_AHEAD = 12;
+   // years of bookings kept in RoomBookings before archiving, unless -Dhotel.bookings.keepYears
+   // says otherwise; 0 never archives. Archiving hides the bookings from every menu operation,
+   // so it is off unless asked for.
+   static final int BOOKING_KEEP_YEARS = 0;
+   static final long BOOKING_PARTITION_INTERVAL_HOURS = 24;
+
+   // radius used by the "near me" searches, in the same units as calculate_distance.
+   static final double NEARBY_DISTANCE = 30;
+   // number of rooms listed by findNearestAvailableRooms.
+   static final int NEARBY_ROOMS_LIMIT = 10;
+
+   // data access of the menu operations; the database unless another store is given.
+   private HotelStore _store = null;
+   // cache over the store for the logged-in user, between beginSession and endSession.
+   private SessionCache _session = null;
+   // rows shown by the "recent" menu operations.
+   static final int RECENT_ROWS = 5;
+   // sessions of the logged-in users, by token; a session not used for this long expires.
+   static final long SESSION_TTL_MILLIS = 30 * 60 * 1000;
+   private final SessionStore _sessions = new SessionStore(SESSION_TTL_MILLIS);
+
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
    static BufferedReader in = new BufferedReader(
@@ -62,7 +163,23 @@ public class Hotel {
          System.out.println ("Connection URL: " + url + "\n");
 
          // obtain a physical connection
+         this._url = url;
+         this._user = user;
+         this._passwd = passwd;
          this._connection = DriverManager.getConnection(url, user, passwd);
+
+         // optional read replica: -Dhotel.replica.port=<port> [-Dhotel.replica.host=<host>]
+         // [-Dhotel.replica.standalone=true when it is not a standby of this database]
+         String replicaPort = System.getProperty("hotel.replica.port");
+         if (replicaPort != null){
+            String replicaUrl = "jdbc:postgresql://" + System.getProperty("hotel.replica.host", "localhost")
+                                + ":" + replicaPort + "/" + dbname;
+            System.out.println ("Replica URL: " + replicaUrl);
+            this._router = new ReplicaRouter(this._connection,
+                                             DriverManager.getConnection(replicaUrl, user, passwd),
+                                             REPLICA_MAX_LAG_MILLIS,
+                                             Boolean.getBoolean("hotel.replica.standalone"));
+         }//end if
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -71,12 +188,203 @@ public class Hotel {
       }//end catch
    }//end Hotel
 
+   /**
+    * Creates a new instance of Hotel without a database connection, working
+    * on the given store. Operations that only exist on the database are not
+    * available.
+    *
+    * @param store the store the menu operations use
+    */
+   public Hotel(HotelStore store) {
+      this._store = store;
+   }//end Hotel
+
+   /*
+    * Creates a Hotel running the query helpers on a connection the caller
+    * owns, with no replica, tracer or background jobs.
+    **/
+   private Hotel(Connection connection) {
+      this._connection = connection;
+   }//end Hotel
+
+   /**
+    * @return the store the menu operations use
+    */
+   public HotelStore store() {
+      if (this._session != null)
+         return this._session;
+      return baseStore();
+   }
+
+   private HotelStore baseStore() {
+      if (this._store == null)
+         this._store = new PostgresStore(this);
+      return this._store;
+   }
+
+   /**
+    * @return the sessions of the logged-in users
+    */
+   public SessionStore sessions() {
+      return this._sessions;
+   }
+
+   /**
+    * Method to start the session of a user who just logged in. The user's
+    * working set is read in the background into a session cache, which the
+    * menu operations use until endSession.
+    */
+   public void beginSession(Session session) {
+      HotelStore store = baseStore();
+      SessionCache.Prefetch prefetch = null;
+      if (singleDatabase())
+         prefetch = sessionPrefetch();
+      else if (store instanceof MemoryStore)
+         prefetch = SessionCache.onThreads(store);
+      this._session = new SessionCache(store, prefetch, session, RECENT_ROWS);
+   }
+
+   /*
+    * Runs the background reads of the session cache on connections of the
+    * interactive class, each through a Hotel of its own, so they neither
+    * share the connection of the menu operations nor count with its tracer.
+    **/
+   private SessionCache.Prefetch sessionPrefetch() {
+      return new SessionCache.Prefetch() {
+         public <T> CompletableFuture<T> read(final SessionCache.StoreRead<T> read) {
+            return scheduler ().submit (WorkloadScheduler.Workload.INTERACTIVE, new WorkloadScheduler.Work<T>() {
+               public T run (Connection connection) throws SQLException {
+                  return read.run (new PostgresStore (new Hotel (connection)));
+               }
+            });
+         }
+      };
+   }
+
+   public void endSession() {
+      if (this._session != null){
+         this._session.close();
+         this._session = null;
+      }//end if
+   }
+
+   /**
+    * Method to make the menu operations use another store.
+    */
+   public void useStore(HotelStore store) {
+      this._store = store;
+   }
+
+   /**
+    * @return true when the menu operations use this database alone, so
+    * the operations written directly against it are available
+    */
+   public boolean singleDatabase() {
+      return this._connection != null && baseStore() instanceof PostgresStore;
+   }
+
    // Method to calculate euclidean distance between two latitude, longitude pairs. 
    public double calculateDistance (double lat1, double long1, double lat2, double long2){
       double t1 = (lat1 - lat2) * (lat1 - lat2);
       double t2 = (long1 - long2) * (long1 - long2);
       return Math.sqrt(t1 + t2); 
    }
+   /**
+    * Method to mark the start of a menu operation. The queries of a
+    * read-only operation may run on the replica; any other operation runs
+    * entirely on the primary and counts as a write of this session. The
+    * queries of a reporting operation that would run on the primary go
+    * through the reporting class of the scheduler, so they never hold up
+    * interactive operations. The statements that follow are traced as the
+    * operation's. The shards of the session begin the operation as well.
+    *
+    * @param operation name of the operation
+    * @param readOnly whether the operation never writes
+    * @param workload workload class of the operation
+    */
+   public void beginOperation (String operation, boolean readOnly, WorkloadScheduler.Workload workload) {
+      enterOperation (readOnly, workload);
+      for (Hotel shard : this._shards)
+         shard.enterOperation (readOnly, workload);
+      if (this._tracer != null)
+         this._tracer.begin (operation);
+   }//end beginOperation
+
+   // read routing, workload class and statement timeout of an operation on this database.
+   private void enterOperation (boolean readOnly, WorkloadScheduler.Workload workload) {
+      this._readOnlyOperation = readOnly;
+      if (!readOnly && this._router != null)
+         this._router.wrote ();
+      this._workload = workload;
+      // statements on the physical connection and the replica get the timeout of the class,
+      // set again only when it changes.
+      if (this._connection != null && workload != this._connectionWorkload){
+         long timeout = workloadBudget (workload).statementTimeoutMillis;
+         try{
+            WorkloadScheduler.setStatementTimeout (this._connection, timeout);
+            if (this._router != null)
+               WorkloadScheduler.setStatementTimeout (this._router.replica (), timeout);
+            this._connectionWorkload = workload;
+         }catch (SQLException e){
+            System.err.println ("Statement timeout not set: " + e.getMessage ());
+         }//end try
+      }//end if
+   }//end enterOperation
+
+   // the shards share the tracer, so there is nothing more to end on them.
+   public void endOperation () {
+      if (this._tracer != null)
+         this._tracer.end ();
+   }
+
+   /**
+    * Method to make the other databases (shards) of this session follow
+    * its menu operations: their reads are routed, and their statements
+    * timed out, as the operation's.
+    */
+   public void useShards (List<Hotel> shards) {
+      this._shards = shards;
+   }
+
+   /**
+    * Method to count the statements of the helpers with the tracer, shared
+    * with the other databases (shards) of this session.
+    */
+   public void useTracer (OperationTracer tracer) {
+      this._tracer = tracer;
+   }
+
+   // counts one round trip with the tracer, if tracing.
+   private void traced (String sql, int rows, long startNanos) {
+      if (this._tracer != null)
+         this._tracer.record (sql, rows, System.nanoTime () - startNanos);
+   }
+
+   // whether a query of the current operation goes through the reporting class instead of
+   // running on the physical connection; queries served by the replica stay there.
+   private boolean scheduledRead () {
+      return this._workload == WorkloadScheduler.Workload.REPORTING && this._connection != null
+             && readConnection () == this._connection;
+   }
+
+   // the result of scheduled work, once done; its SQLException is thrown as is.
+   private static <T> T await (CompletableFuture<T> future) throws SQLException {
+      try{
+         return future.join ();
+      }catch (CompletionException e){
+         if (e.getCause () instanceof SQLException)
+            throw (SQLException) e.getCause ();
+         throw e;
+      }//end try
+   }
+
+   // connection the query helpers run on.
+   private Connection readConnection () {
+      if (this._router != null && this._readOnlyOperation)
+         return this._router.forRead ();
+      return this._connection;
+   }
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
@@ -85,16 +393,57 @@ public class Hotel {
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
+      if (this._router != null)
+         this._router.wrote ();
+      long start = System.nanoTime ();
       // creates a statement object
       Statement stmt = this._connection.createStatement ();
 
       // issues the update instruction
-      stmt.executeUpdate (sql);
+      int rows = stmt.executeUpdate (sql);
+      traced (sql, rows, start);
 
       // close the instruction
       stmt.close ();
    }//end executeUpdate
 
+   /**
+    * Method to execute several update SQL statements as one batch, in a
+    * single round trip and a single transaction. Nothing is applied if any
+    * statement fails.
+    *
+    * @param sqls the input SQL strings
+    * @return the update count of each statement
+    * @throws java.sql.SQLException when the batch failed
+    */
+   public int[] executeUpdateBatch (List<String> sqls) throws SQLException {
+      if (this._router != null)
+         this._router.wrote ();
+      boolean autoCommit = this._connection.getAutoCommit ();
+      this._connection.setAutoCommit (false);
+      Statement stmt = this._connection.createStatement ();
+      try{
+         long start = System.nanoTime ();
+         for (String sql : sqls)
+            stmt.addBatch (sql);
+         int[] counts = stmt.executeBatch ();
+         this._connection.commit ();
+         int rows = 0;
+         for (int count : counts)
+            rows += count;
+         // the batch is one round trip, traced by the shape of its first statement.
+         if (!sqls.isEmpty())
+            traced (sqls.get(0), rows, start);
+         return counts;
+      }catch (SQLException e){
+         this._connection.rollback ();
+         throw e;
+      }finally{
+         stmt.close ();
+         this._connection.setAutoCommit (autoCommit);
+      }//end try
+   }//end executeUpdateBatch
+
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and outputs the results to
@@ -104,13 +453,39 @@ public class Hotel {
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
+   public int executeQueryAndPrintResult (final String query) throws SQLException {
+      if (scheduledRead ())
+         return await (async (new WorkloadScheduler.Work<Integer>() {
+            public Integer run (Connection connection) throws SQLException {
+               long start = System.nanoTime ();
+               Statement stmt = connection.createStatement ();
+               try{
+                  int rowCount = printResult (stmt.executeQuery (query), System.out);
+                  traced (query, rowCount, start);
+                  return rowCount;
+               }finally{
+                  stmt.close ();
+               }//end try
+            }
+         }));
+      long start = System.nanoTime ();
       // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Statement stmt = readConnection().createStatement ();
 
       // issues the query instruction
       ResultSet rs = stmt.executeQuery (query);
 
+      int rowCount = printResult (rs, System.out);
+      stmt.close ();
+      traced (query, rowCount, start);
+      return rowCount;
+   }//end executeQuery
+
+   /*
+    * Prints the rows of a result set, preceded by the column names when
+    * there is at least one row.
+    **/
+   private static int printResult (ResultSet rs, PrintStream out) throws SQLException {
       /*
        ** obtains the metadata object for the returned result set.  The metadata
        ** contains row and column info.
@@ -119,24 +494,127 @@ public class Hotel {
       int numCol = rsmd.getColumnCount ();
       int rowCount = 0;
 
-      // iterates through the result set and output them to standard out.
+      // iterates through the result set and output them to the stream.
       boolean outputHeader = true;
       while (rs.next()){
 		 if(outputHeader){
 			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
+			out.print(rsmd.getColumnName(i) + "\t");
 			}
-			System.out.println();
+			out.println();
 			outputHeader = false;
 		 }
          for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
+            out.print (rs.getString (i) + "\t");
+         out.println ();
          ++rowCount;
       }//end while
-      stmt.close ();
       return rowCount;
-   }//end executeQuery
+   }//end printResult
+
+   /*
+    * Runs work on a connection and thread of the workload class of the
+    * current operation. The scheduler is created on first use and released
+    * by cleanup.
+    **/
+   private <T> CompletableFuture<T> async (WorkloadScheduler.Work<T> work) {
+      return scheduler ().submit (this._workload, work);
+   }//end async
+
+   private synchronized WorkloadScheduler scheduler () {
+      if (this._scheduler == null){
+         Map<WorkloadScheduler.Workload, WorkloadScheduler.Budget> budgets =
+            new EnumMap<WorkloadScheduler.Workload, WorkloadScheduler.Budget>(WorkloadScheduler.Workload.class);
+         for (WorkloadScheduler.Workload workload : WorkloadScheduler.Workload.values())
+            budgets.put(workload, workloadBudget (workload));
+         this._scheduler = new WorkloadScheduler(new ConnectionPool.Factory() {
+            public Connection open() throws SQLException {
+               return openConnection();
+            }
+         }, budgets);
+      }//end if
+      return this._scheduler;
+   }//end scheduler
+
+   // share of a workload class: the -Dhotel.workload.<class>.* properties, or the defaults.
+   static WorkloadScheduler.Budget workloadBudget (WorkloadScheduler.Workload workload) {
+      boolean reporting = workload == WorkloadScheduler.Workload.REPORTING;
+      String prefix = "hotel.workload." + workload.name().toLowerCase() + ".";
+      return new WorkloadScheduler.Budget(
+         Integer.getInteger(prefix + "connections", reporting ? REPORTING_CONNECTIONS : INTERACTIVE_CONNECTIONS),
+         Integer.getInteger(prefix + "queue", reporting ? REPORTING_QUEUE : INTERACTIVE_QUEUE),
+         Long.getLong(prefix + "timeoutMillis", reporting ? REPORTING_TIMEOUT_MILLIS : INTERACTIVE_TIMEOUT_MILLIS));
+   }//end workloadBudget
+
+   /**
+    * Method to write the queue depth, wait times and outcomes of each
+    * workload class as CSV; only the header if nothing was scheduled.
+    */
+   public synchronized void reportWorkload (PrintStream out) {
+      if (this._scheduler != null)
+         this._scheduler.report (out);
+      else
+         out.println (WorkloadScheduler.HEADER);
+   }
+
+   /**
+    * Method to run a query (i.e. SELECT) on a pooled connection without
+    * waiting for it. Independent queries started together run concurrently,
+    * so waiting for all of them costs the slowest one instead of the sum.
+    *
+    * @param query the input query string
+    * @return the future query result as a list of records
+    */
+   public CompletableFuture<List<List<String>>> executeQueryAsync (final String query) {
+      return async(new WorkloadScheduler.Work<List<List<String>>>() {
+         public List<List<String>> run (Connection connection) throws SQLException {
+            long start = System.nanoTime ();
+            Statement stmt = connection.createStatement ();
+            try{
+               ResultSet rs = stmt.executeQuery (query);
+               int numCol = rs.getMetaData ().getColumnCount ();
+               List<List<String>> result = new ArrayList<List<String>>();
+               while (rs.next()){
+                  List<String> record = new ArrayList<String>();
+                  for (int i=1; i<=numCol; ++i)
+                     record.add(rs.getString (i));
+                  result.add(record);
+               }//end while
+               traced (query, result.size(), start);
+               return result;
+            }finally{
+               stmt.close ();
+            }//end try
+         }
+      });
+   }//end executeQueryAsync
+
+   /**
+    * Method to run a query (i.e. SELECT) on a pooled connection without
+    * waiting for it, rendering the rows the way executeQueryAndPrintResult
+    * prints them so the caller can print results in its own order.
+    *
+    * @param query the input query string
+    * @return the future printed form of the result
+    */
+   public CompletableFuture<String> executeQueryAndFormatAsync (final String query) {
+      return async(new WorkloadScheduler.Work<String>() {
+         public String run (Connection connection) throws SQLException {
+            long start = System.nanoTime ();
+            Statement stmt = connection.createStatement ();
+            try{
+               ByteArrayOutputStream text = new ByteArrayOutputStream();
+               PrintStream out = new PrintStream(text);
+               int rowCount = printResult (stmt.executeQuery (query), out);
+               out.flush ();
+               traced (query, rowCount, start);
+               return text.toString ();
+            }finally{
+               stmt.close ();
+            }//end try
+         }
+      });
+   }//end executeQueryAndFormatAsync
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -148,8 +626,11 @@ public class Hotel {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
+      if (scheduledRead ())
+         return await (executeQueryAsync (query));
+      long start = System.nanoTime ();
       // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Statement stmt = readConnection().createStatement ();
 
       // issues the query instruction
       ResultSet rs = stmt.executeQuery (query);
@@ -172,6 +653,7 @@ public class Hotel {
         result.add(record);
       }//end while
       stmt.close ();
+      traced (query, result.size(), start);
       return result;
    }//end executeQueryAndReturnResult
 
@@ -184,8 +666,11 @@ public class Hotel {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
+       if (scheduledRead ())
+          return await (executeQueryAsync (query)).size ();
+       long start = System.nanoTime ();
        // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+       Statement stmt = readConnection().createStatement ();
 
        // issues the query instruction
        ResultSet rs = stmt.executeQuery (query);
@@ -197,6 +682,7 @@ public class Hotel {
           rowCount++;
        }//end while
        stmt.close ();
+       traced (query, rowCount, start);
        return rowCount;
    }
 
@@ -218,17 +704,232 @@ public class Hotel {
       return -1;
    }
 
-   public int getNewUserID(String sql) throws SQLException {
-      Statement stmt = this._connection.createStatement ();
-      ResultSet rs = stmt.executeQuery (sql);
-      if (rs.next())
-         return rs.getInt(1);
-      return -1;
+   /**
+    * Method to get a new value of a sequence for a key the insert sets
+    * itself. Values come from blocks reserved ahead, so this normally does
+    * not go to the DBMS, and no other session gets the same value.
+    *
+    * @param sequence name of the DB sequence
+    * @return a new value of the sequence
+    * @throws java.sql.SQLException when failed to reserve more values
+    */
+   public int nextID(String sequence) throws SQLException {
+      IdAllocator allocator = this._idAllocators.computeIfAbsent(sequence, new Function<String, IdAllocator>() {
+         public IdAllocator apply(String name) {
+            return new IdAllocator(Hotel.this._connection, name, ID_BLOCK_SIZE);
+         }
+      });
+      return allocator.next();
+   }//end nextID
+
+   /**
+    * Method to start the background job keeping RoomBookings partitions
+    * BOOKING_PARTITION_MONTHS_AHEAD months ahead of today. With
+    * -Dhotel.bookings.keepYears=n it also archives the partitions older
+    * than n years; by default (BOOKING_KEEP_YEARS) nothing is archived.
+    * Archived partitions can be queried in the archive schema and attached
+    * again with reattach_roombookings_partition(), see create_tables.sql.
+    * RoomBookings is range partitioned on bookingDate, so a booking for a
+    * date without a partition would be rejected by the DBMS.
+    *
+    * @throws java.sql.SQLException when failed to make its connection
+    */
+   public void startBookingPartitions() throws SQLException {
+      int keepYears = Integer.getInteger("hotel.bookings.keepYears", BOOKING_KEEP_YEARS);
+      this._bookingPartitions = new BookingPartitions(openConnection(), BOOKING_PARTITION_MONTHS_AHEAD, keepYears,
+                                                      BOOKING_PARTITION_INTERVAL_HOURS);
+   }//end startBookingPartitions
+
+   /**
+    * Method to make sure the RoomBookings partition of a day exists before
+    * booking it, for days past those the background job made ready.
+    *
+    * @param day the booking date
+    */
+   public void ensureBookingPartition(LocalDate day) {
+      if (this._bookingPartitions != null && this._bookingPartitions.covers(day))
+         return;
+      try{
+         long start = System.nanoTime ();
+         Statement stmt = this._connection.createStatement ();
+         String sql = String.format("SELECT roombookings_ensure_partition('%s'::date)", day);
+         stmt.executeQuery (sql);
+         stmt.close ();
+         traced (sql, 1, start);
+      }catch (SQLException e){
+         // unpartitioned schema; the insert reports whatever is still wrong.
+      }//end try
+   }//end ensureBookingPartition
+
+   /**
+    * Method to start the background job compacting RoomUpdatesLog rows
+    * older than -Dhotel.updates.keepDays days (default UPDATES_KEEP_DAYS)
+    * into daily rollups.
+    *
+    * @throws java.sql.SQLException when failed to make its connection
+    */
+   public void startUpdatesRetention() throws SQLException {
+      int keepDays = Integer.getInteger("hotel.updates.keepDays", UPDATES_KEEP_DAYS);
+      this._updatesRetention = new RoomUpdatesRetention(openConnection(), keepDays, UPDATES_COMPACT_BATCH,
+                                                        UPDATES_COMPACT_INTERVAL_MINUTES);
+   }//end startUpdatesRetention
+
+   /**
+    * Method to open one more physical connection to the same database.
+    *
+    * @return the new connection
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public Connection openConnection() throws SQLException {
+      return DriverManager.getConnection(this._url, this._user, this._passwd);
    }
+
+   /**
+    * Method to import a file of bookings in one transaction through a COPY
+    * staging table. Rows that cannot be booked are written to the reject
+    * file with the reason.
+    *
+    * @param file CSV bookings file: customerID,hotelID,roomNumber,bookingDate
+    * @param rejects where the rejected rows are written
+    * @return {accepted rows, rejected rows}
+    * @throws java.sql.SQLException when the import failed; nothing is imported then
+    * @throws java.io.IOException when a file could not be read or written
+    */
+   public int[] importBookings (File file, File rejects) throws SQLException, IOException {
+      if (this._router != null)
+         this._router.wrote ();
+      return new BookingImport (this._connection).run (file, rejects);
+   }//end importBookings
+
+   /**
+    * Method to stream the history of a hotel into a file, on a connection
+    * of its own so the session is not held up. The export is one long
+    * statement, so it gets -Dhotel.workload.export.timeoutMillis (default
+    * EXPORT_TIMEOUT_MILLIS) instead of the timeout of its class.
+    *
+    * @return the number of rows written
+    * @throws java.sql.SQLException when failed to read the rows
+    * @throws java.io.IOException when failed to write the file
+    */
+   public long exportHistory (HistoryExport.Table table, int hotelID, LocalDate from, LocalDate to,
+                              HistoryExport.Format format, File file) throws SQLException, IOException {
+      Connection connection = openConnection ();
+      try{
+         WorkloadScheduler.setStatementTimeout (connection, Long.getLong ("hotel.workload.export.timeoutMillis",
+                                                                           EXPORT_TIMEOUT_MILLIS));
+         return new HistoryExport (connection).write (table, hotelID, from, to, format, file);
+      }finally{
+         connection.close ();
+      }//end try
+   }//end exportHistory
+
+   /**
+    * Method to apply room price changes with compare-and-set semantics: a
+    * change is only applied if the room is still at the version it was read
+    * at, and applying it bumps the version. Changes are sent
+    * REPRICE_CHUNK_SIZE at a time, each chunk as one UPDATE in its own short
+    * transaction. Readers of Rooms are never blocked by it.
+    *
+    * @param changes {hotelID, roomNumber, expectedVersion, newPrice} of each room
+    * @return the changes not applied because the room had changed meanwhile
+    * @throws java.sql.SQLException when an update failed
+    */
+   public List<int[]> repriceRooms (List<int[]> changes) throws SQLException {
+      if (this._router != null)
+         this._router.wrote ();
+      List<int[]> conflicts = new ArrayList<int[]>();
+      Statement stmt = this._connection.createStatement ();
+      try{
+         for (int from = 0; from < changes.size(); from += REPRICE_CHUNK_SIZE){
+            List<int[]> chunk = changes.subList(from, Math.min(changes.size(), from + REPRICE_CHUNK_SIZE));
+            StringBuilder values = new StringBuilder();
+            for (int[] change : chunk){
+               if (values.length() > 0)
+                  values.append(',');
+               values.append(String.format("(%d,%d,%d,%d)", change[0], change[1], change[2], change[3]));
+            }
+            long start = System.nanoTime ();
+            String update =
+               "UPDATE Rooms r SET price = c.price, version = r.version + 1 " +
+               "FROM (VALUES " + values + ") AS c(hotelID, roomNumber, version, price) " +
+               "WHERE r.hotelID = c.hotelID AND r.roomNumber = c.roomNumber AND r.version = c.version " +
+               "RETURNING r.hotelID, r.roomNumber";
+            ResultSet rs = stmt.executeQuery (update);
+            Set<Long> applied = new HashSet<Long>();
+            while (rs.next())
+               applied.add(((long) rs.getInt(1) << 32) | (rs.getInt(2) & 0xffffffffL));
+            traced (update, applied.size(), start);
+            for (int[] change : chunk)
+               if (!applied.contains(((long) change[0] << 32) | (change[1] & 0xffffffffL)))
+                  conflicts.add(change);
+         }//end for
+      }finally{
+         stmt.close ();
+      }//end try
+      return conflicts;
+   }//end repriceRooms
+
+   /**
+    * Method to get the in-memory copy of RoomBookings, brought up to date
+    * with the bookings made since it was last used.
+    *
+    * @return the booking snapshot
+    * @throws java.sql.SQLException when failed to read the bookings
+    */
+   public synchronized BookingSnapshot bookingSnapshot() throws SQLException {
+      if (this._bookingSnapshot == null)
+         this._bookingSnapshot = BookingSnapshot.load(this._connection);
+      else
+         this._bookingSnapshot.refresh(this._connection);
+      return this._bookingSnapshot;
+   }//end bookingSnapshot
+
+   /**
+    * Method to record a room update in RoomUpdatesLog. The row is written by
+    * a background writer in batches; with -Dhotel.audit.durability=commit
+    * the call only returns once the row is committed, and throws if it was not.
+    *
+    * @throws java.sql.SQLException when failed to start the writer, or to commit the row
+    */
+   public synchronized void auditRoomUpdate(int managerID, int hotelID, int roomNumber) throws SQLException {
+      if (this._auditWriter == null){
+         RoomUpdatesAuditWriter.Durability durability =
+            "commit".equals(System.getProperty("hotel.audit.durability"))
+               ? RoomUpdatesAuditWriter.Durability.FLUSH_ON_COMMIT
+               : RoomUpdatesAuditWriter.Durability.FIRE_AND_FORGET;
+         this._auditWriter = new RoomUpdatesAuditWriter(openConnection(), durability,
+                                                        AUDIT_QUEUE_CAPACITY, AUDIT_BATCH_SIZE);
+      }//end if
+      this._auditWriter.log(managerID, hotelID, roomNumber);
+   }//end auditRoomUpdate
+
    /**
-    * Method to close the physical connection if it is open.
+    * Method to close the physical connection if it is open. Pending
+    * RoomUpdatesLog rows are written first.
     */
    public void cleanup(){
+      if (this._auditWriter != null){
+         this._auditWriter.close ();
+         this._auditWriter = null;
+      }//end if
+      if (this._updatesRetention != null){
+         this._updatesRetention.close ();
+         this._updatesRetention = null;
+      }//end if
+      if (this._bookingPartitions != null){
+         this._bookingPartitions.close ();
+         this._bookingPartitions = null;
+      }//end if
+      if (this._router != null){
+         this._router.close ();
+         this._router = null;
+      }//end if
+      synchronized (this){
+         if (this._scheduler != null){
+            this._scheduler.close ();
+            this._scheduler = null;
+         }//end if
+      }
       try{
          if (this._connection != null){
             this._connection.close ();
@@ -244,26 +945,65 @@ public class Hotel {
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      boolean memory = args.length == 2 && args[0].equals("--memory");
+      if (args.length != 3 && !memory) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             Hotel.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user>\n" +
+            "   or: java [-classpath <classpath>] " +
+            Hotel.class.getName () +
+            " --memory <data directory>");
          return;
       }//end if
 
       Greeting();
       Hotel esql = null;
+      // optional tracing: -Dhotel.trace=<report file> [-Dhotel.trace.budgets=<properties file>]
+      OperationTracer tracer = null;
+      String trace = System.getProperty("hotel.trace");
+      // optional: -Dhotel.workload.metrics=<report file>, queue depth and wait times of each workload class.
+      String metrics = System.getProperty("hotel.workload.metrics");
       try{
+         if (trace != null){
+            String budgets = System.getProperty("hotel.trace.budgets");
+            tracer = new OperationTracer(budgets == null ? null : new File(budgets));
+         }//end if
+         if (memory){
+            // no database: the CSV data is loaded into an in-memory store.
+            System.out.print("Loading " + args[1] + "...");
+            esql = new Hotel (MemoryStore.load(new File(args[1])));
+            System.out.println("Done");
+         }else{
          // use postgres JDBC driver.
-         Class.forName ("org.postgresql.Driver").newInstance ();
+         Class.forName ("org.postgresql.Driver").getDeclaredConstructor ().newInstance ();
          // instantiate the Hotel object and creates a physical
          // connection.
          String dbname = args[0];
          String dbport = args[1];
          String user = args[2];
          esql = new Hotel (dbname, dbport, user, "");
+         esql.startBookingPartitions();
+         esql.startUpdatesRetention();
+         esql.useTracer(tracer);
+
+         // optional shards: -Dhotel.shards=<dbname:port>,... with this database as shard 0.
+         String shards = System.getProperty("hotel.shards");
+         if (shards != null){
+            List<Hotel> others = ShardTool.connect(shards, user);
+            for (Hotel shard : others){
+               shard.startBookingPartitions();
+               shard.startUpdatesRetention();
+               shard.useTracer(tracer);
+            }
+            esql.useShards(others);
+            List<Hotel> all = new ArrayList<Hotel>();
+            all.add(esql);
+            all.addAll(others);
+            esql.useStore(new ShardedStore(all));
+         }//end if
+         }//end if
 
          boolean keepon = true;
          while(keepon) {
@@ -273,14 +1013,15 @@ public class Hotel {
             System.out.println("1. Create user");
             System.out.println("2. Log in");
             System.out.println("9. < EXIT");
-            String authorisedUser = null;
+            String token = null;
             switch (readChoice()){
-               case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
+               case 1: esql.beginOperation("CreateUser", false, WorkloadScheduler.Workload.INTERACTIVE); CreateUser(esql); break;
+               case 2: esql.beginOperation("LogIn", false, WorkloadScheduler.Workload.INTERACTIVE); token = LogIn(esql); break;
                case 9: keepon = false; break;
                default : System.out.println("Unrecognized choice!"); break;
             }//end switch
-            if (authorisedUser != null) {
+            esql.endOperation();
+            if (token != null) {
               boolean usermenu = true;
               while(usermenu) {
                 System.out.println("MAIN MENU");
@@ -297,39 +1038,94 @@ public class Hotel {
                 System.out.println("8. View 5 regular Customers");
                 System.out.println("9. Place room repair Request to a company");
                 System.out.println("10. View room repair Requests history");
+                System.out.println("11. Find cheapest available rooms near me");
+                System.out.println("12. View Rooms available for a stay");
+                System.out.println("13. View room repair analytics");
+                System.out.println("14. Occupancy and revenue report");
+                System.out.println("15. Reprice all rooms of a hotel");
+                System.out.println("16. Import bookings from a file");
+                System.out.println("17. Export booking, repair or update history to a file");
 
                 System.out.println(".........................");
                 System.out.println("20. Log out");
-                switch (readChoice()){
+                int choice = readChoice();
+                // the token is all that is checked per action; the password was verified at login.
+                Session session = esql.sessions().get(token);
+                if (session == null){
+                   System.out.println("Your session has expired, please log in again.");
+                   esql.endSession();
+                   break;
+                }//end if
+                if (choice >= 11 && choice <= 17 && !esql.singleDatabase()){
+                   System.out.println("Not available with this store.");
+                   continue;
+                }//end if
+                esql.beginOperation(choice > 0 && choice < OPERATION_NAMES.length ? OPERATION_NAMES[choice] : "choice " + choice,
+                                    READ_ONLY_OPERATIONS.contains(choice),
+                                    REPORTING_OPERATIONS.contains(choice) ? WorkloadScheduler.Workload.REPORTING
+                                                                          : WorkloadScheduler.Workload.INTERACTIVE);
+                switch (choice){
                    case 1: viewHotels(esql); break;
                    case 2: viewRooms(esql); break;
-                   case 3: bookRooms(esql,authorisedUser); break;
-                   case 4: viewRecentBookingsfromCustomer(esql,authorisedUser); break;
-                   case 5: updateRoomInfo(esql,authorisedUser); break;
-                   case 6: viewRecentUpdates(esql, authorisedUser); break;
-                   case 7: viewBookingHistoryofHotel(esql,authorisedUser); break;
-                   case 8: viewRegularCustomers(esql,authorisedUser); break;
-                   case 9: placeRoomRepairRequests(esql, authorisedUser); break;
-                   case 10: viewRoomRepairHistory(esql,authorisedUser); break;
-                   case 20: usermenu = false; break;
+                   case 3: bookRooms(esql,session); break;
+                   case 4: viewRecentBookingsfromCustomer(esql,session); break;
+                   case 5: updateRoomInfo(esql,session); break;
+                   case 6: viewRecentUpdates(esql, session); break;
+                   case 7: viewBookingHistoryofHotel(esql,session); break;
+                   case 8: viewRegularCustomers(esql,session); break;
+                   case 9: placeRoomRepairRequests(esql, session); break;
+                   case 10: viewRoomRepairHistory(esql,session); break;
+                   case 11: findNearestAvailableRooms(esql); break;
+                   case 12: viewRoomsForStay(esql); break;
+                   case 13: viewRepairAnalytics(esql,session); break;
+                   case 14: viewOccupancyReport(esql,session); break;
+                   case 15: bulkRepriceRooms(esql,session); break;
+                   case 16: importGroupBookings(esql,session); break;
+                   case 17: exportHistory(esql,session); break;
+                   case 20: usermenu = false; esql.sessions().close(token); esql.endSession(); break;
                    default : System.out.println("Unrecognized choice!"); break;
                 }
+                esql.endOperation();
               }
             }
          }//end while
       }catch(Exception e) {
          System.err.println (e.getMessage ());
       }finally{
+         if (esql != null && metrics != null){
+            try{
+               PrintStream report = new PrintStream(new File(metrics));
+               esql.reportWorkload(report);
+               report.close();
+            }catch (IOException e){
+               System.err.println ("Workload metrics not written: " + e.getMessage ());
+            }//end try
+         }//end if
          // make sure to cleanup the created table and close the connection.
          try{
             if(esql != null) {
                System.out.print("Disconnecting from database...");
-               esql.cleanup ();
+               esql.endSession();
+               esql.store().close ();
                System.out.println("Done\n\nBye !");
             }//end if
          }catch (Exception e) {
             // ignored.
          }//end try
+         if (tracer != null){
+            try{
+               PrintStream report = new PrintStream(new File(trace));
+               tracer.report(report);
+               report.close();
+            }catch (IOException e){
+               System.err.println ("Trace report not written: " + e.getMessage ());
+            }//end try
+            // lets CI fail a scripted session that takes more round trips than budgeted.
+            if (tracer.overBudget()){
+               System.err.println ("Round trip budget exceeded, see " + trace);
+               System.exit(3);
+            }//end if
+         }//end if
       }//end try
    }//end main
 
@@ -370,9 +1166,8 @@ public class Hotel {
          System.out.print("\tEnter password: ");
          String password = in.readLine(); 
          String type="Customer";
-			String query = String.format("INSERT INTO USERS (name, password, userType) VALUES ('%s','%s', '%s')", name, password, type);
-         esql.executeUpdate(query);
-         System.out.println ("User successfully created with userID = " + esql.getNewUserID("SELECT last_value FROM users_userID_seq"));
+         int userID = esql.store().users().create(name, password, type);
+         System.out.println ("User successfully created with userID = " + userID);
          
       }catch(Exception e){
          System.err.println (e.getMessage ());
@@ -381,8 +1176,8 @@ public class Hotel {
 
 
    /*
-    * Check log in credentials for an existing user
-    * @return User login or null is the user does not exist
+    * Check log in credentials for an existing user and open a session
+    * @return the session token, or null if the credentials are wrong
     **/
    public static String LogIn(Hotel esql){
       try{
@@ -391,10 +1186,12 @@ public class Hotel {
          System.out.print("\tEnter password: ");
          String password = in.readLine();
 
-         String query = String.format("SELECT * FROM USERS WHERE userID = '%s' AND password = '%s'", userID, password);
-         int userNum = esql.executeQuery(query);
-         if (userNum > 0)
-            return userID;
+         HotelStore.User user = esql.store().users().logIn(Integer.parseInt(userID.trim()), password);
+         if (user != null){
+            Session session = esql.sessions().open(user, esql.store().hotels().managedBy(user.userID));
+            esql.beginSession(session);
+            return session.token;
+         }
          return null;
       }catch(Exception e){
          System.err.println (e.getMessage ());
@@ -402,44 +1199,70 @@ public class Hotel {
       }
    }//end
 
+   /*
+    * Parses a date typed by the user: yyyy/MM/dd, yyyy-MM-dd or MM/dd/yyyy.
+    **/
+   static LocalDate parseDate(String text) {
+      text = text.trim();
+      if (text.matches("\\d{1,2}/\\d{1,2}/\\d{4}"))
+         return LocalDate.parse(text, DateTimeFormatter.ofPattern("M/d/yyyy"));
+      return LocalDate.parse(text.replace('-', '/'), DateTimeFormatter.ofPattern("yyyy/M/d"));
+   }
+
 // Rest of the functions definition go in here
 
    public static void viewHotels(Hotel esql) {
-	try {//might be wrong but you might have to run all the hotel locations and only give the hotels that are 30 or less
-		//change get the input as a double not int
-		//
-
-      		// issues the query instruction
+	try {
 		Scanner input = new Scanner(System.in);
 		System.out.print("\tEnter Latitude: ");
 		double latitude=input.nextDouble();
 		System.out.print("\tEnter Longitude: ");
 		double longitude= input.nextDouble(); 
-		String query1 = ("SELECT hotelName,latitude,longitude FROM Hotel");
-		List<List<String>> result = esql.executeQueryAndReturnResult(query1); // executes SQL and saves the output
-		for(int i = 0; i<result.size();i++){
-			double hLat = Double.parseDouble(result.get(i).get(1));
-			double hLong = Double.parseDouble(result.get(i).get(2));
-			if(esql.calculateDistance(latitude,longitude,hLat,hLong)<=30){
-				System.out.println(result.get(i).get(0));
-				}
-			}
-	
-        } catch (Exception e)
-    {
-        // do something appropriate with the exception, *at least*:
-	System.out.print("inside----------------------------------------------------------------->>>>>>>>>>>>>> ");
-         System.err.println (e.getMessage ());
-	System.err.println (e.getMessage ());
-        
-    }
- 
-            // Close resources
-            //if (rs != null) {
-              //  rs.close();
-      
-       
+		for(HotelStore.HotelInfo hotel : esql.store().hotels().near(latitude,longitude,NEARBY_DISTANCE))
+			System.out.println(hotel.hotelName);
+	} catch (Exception e) {
+		System.err.println (e.getMessage ());
+	}
    }
+   /*
+    * Lists the cheapest rooms free on a given date in hotels within
+    * NEARBY_DISTANCE of the customer, in a single query. The latitude and
+    * longitude ranges are a bounding box the Hotel index can use; the exact
+    * distance is then checked with calculate_distance on the survivors only.
+    **/
+   public static void findNearestAvailableRooms(Hotel esql) {
+	try{
+		Scanner input = new Scanner(System.in);
+		System.out.print("\tEnter Latitude: ");
+		double latitude = input.nextDouble();
+		System.out.print("\tEnter Longitude: ");
+		double longitude = input.nextDouble();
+		input.nextLine();
+		System.out.print("\tEnter Date (yyyy/MM/dd)ex(2015/05/12) : ");
+		String day = input.nextLine();
+
+		String query = String.format(
+			"SELECT h.hotelID, h.hotelName, r.roomNumber, r.price, " +
+			"round(calculate_distance(%f, %f, h.latitude, h.longitude), 2) AS distance " +
+			"FROM Hotel h JOIN Rooms r ON r.hotelID = h.hotelID " +
+			"WHERE h.latitude BETWEEN %f AND %f AND h.longitude BETWEEN %f AND %f " +
+			"AND calculate_distance(%f, %f, h.latitude, h.longitude) <= %f " +
+			"AND NOT EXISTS (SELECT 1 FROM RoomBookings b WHERE b.hotelID = r.hotelID " +
+			"AND b.roomNumber = r.roomNumber AND b.bookingDate = '%s'::date) " +
+			"ORDER BY r.price, distance LIMIT %d",
+			latitude, longitude,
+			latitude - NEARBY_DISTANCE, latitude + NEARBY_DISTANCE,
+			longitude - NEARBY_DISTANCE, longitude + NEARBY_DISTANCE,
+			latitude, longitude, NEARBY_DISTANCE,
+			day, NEARBY_ROOMS_LIMIT);
+		System.out.println("\tCheapest rooms available on " + day);
+		if (esql.executeQueryAndPrintResult(query) == 0)
+			System.out.println("\tNo rooms available near you on that date.");
+	}catch(Exception e){
+		System.err.println (e.getMessage ());
+	}
+   }// end findNearestAvailableRooms
+
    public static void viewRooms(Hotel esql) {
    	try {
 		Scanner input = new Scanner(System.in);
@@ -448,297 +1271,495 @@ public class Hotel {
 		input.nextLine();
 		System.out.println("\tEnter Date (yyyy/MM/dd)ex(2015/05/12) : ");
 		String day =input.nextLine();
-		//SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
-		//Date date2 = dateFormat.parse(d);
 
 		System.out.println("\tRooms available on  "+day);
-		esql.executeQueryAndPrintResult(String.format ("SELECT roomNumber,price FROM Rooms WHERE hotelID = '%d' AND roomNumber NOT IN(SELECT roomNumber FROM RoomBookings WHERE hotelID = '%d' AND bookingDate= '%s')",hotelID,hotelID,day)); 
-
+		List<HotelStore.Room> rooms = esql.store().bookings().available(hotelID, parseDate(day));
+		if(!rooms.isEmpty())
+			System.out.println("roomnumber\tprice\t");
+		for(HotelStore.Room room : rooms)
+			System.out.println(room.roomNumber + "\t" + room.price + "\t");
 		}
 	 catch (Exception e){
 		System.err.println (e.getMessage ());
 	}
    }// end viewRooms
-   public static void bookRooms(Hotel esql, String authorisedUser) {
-	   try{
-		String date;
 
+   /*
+    * Lists the rooms of a hotel that are free for every night from the
+    * check-in date up to (not including) the check-out date. Each booking is
+    * one night, so a room qualifies when the (hotelID, bookingDate) index has
+    * no entry for it anywhere in the range; one query answers the whole stay.
+    **/
+   public static void viewRoomsForStay(Hotel esql) {
+	try{
+		Scanner input = new Scanner(System.in);
+		System.out.println("\tEnter Hotel ID: ");
+		int hotelID = input.nextInt();
+		input.nextLine();
+		System.out.println("\tEnter check-in Date (yyyy/MM/dd)ex(2015/05/12) : ");
+		LocalDate checkIn = parseDate(input.nextLine());
+		System.out.println("\tEnter check-out Date (yyyy/MM/dd)ex(2015/05/15) : ");
+		LocalDate checkOut = parseDate(input.nextLine());
+		if(!checkOut.isAfter(checkIn)){
+			System.out.println("\tThe check-out date must be after the check-in date.");
+			return;
+		}
 
+		String query = String.format(
+			"SELECT r.roomNumber, r.price FROM Rooms r WHERE r.hotelID = '%d' " +
+			"AND NOT EXISTS (SELECT 1 FROM RoomBookings b WHERE b.hotelID = r.hotelID " +
+			"AND b.roomNumber = r.roomNumber AND b.bookingDate >= '%s'::date AND b.bookingDate < '%s'::date) " +
+			"ORDER BY r.price, r.roomNumber",
+			hotelID, checkIn, checkOut);
+		System.out.println("\tRooms available from " + checkIn + " to " + checkOut);
+		if (esql.executeQueryAndPrintResult(query) == 0)
+			System.out.println("\tNo room is free for the whole stay.");
+	}catch(Exception e){
+		System.err.println (e.getMessage ());
+	}
+   }// end viewRoomsForStay
+   public static void bookRooms(Hotel esql, Session session) {
+	   try{
 		System.out.print("\tNow booking rooms: \n");
-		   System.out.print("\tInput valid hotel ID: \n");
-		 Scanner in1 = new Scanner(System.in);
-		 int hotelID = in1.nextInt(); 
-
-		 System.out.print("\tInput valid room number: \n");
-		 Scanner in2 = new Scanner(System.in);
-		 int rNum = in2.nextInt();
-
-
-		 System.out.print("\tInput valid date: \n");
-		 date = in.readLine();
-
-		 String query = String.format("SELECT * FROM roombookings WHERE bookingdate = '%s' AND hotelid = '%d' AND roomnumber = '%d'", date, hotelID, rNum);
-
-		// esql.executeQueryAndPrintResult(query);
-
-		// System.out.print(query);
-
-		 int isAvailable = (esql.executeQuery(query));
-		 System.out.print("\n");
-
-
-		 if(isAvailable == 0){
-			 String query3 = String.format("SELECT price FROM rooms WHERE hotelid = '%d' AND roomnumber = '%d'", hotelID, rNum);
-			 System.out.print("Your room is now booked for that date! Your total will be: ") ;
-			 esql.executeQueryAndPrintResult(query3);
-			 int cusID = Integer.parseInt(authorisedUser);
-
-			 String query2 = String.format("INSERT INTO roombookings (bookingdate, hotelid, roomnumber, customerid) VALUES ('%s','%d', '%d', '%d')", date, hotelID, rNum, cusID);
-
-			esql.executeUpdate(query2);
-		 }else{
+		System.out.print("\tInput valid hotel ID: \n");
+		int hotelID = Integer.parseInt(in.readLine().trim());
+		System.out.print("\tInput valid room number: \n");
+		int rNum = Integer.parseInt(in.readLine().trim());
+		System.out.print("\tInput valid date: \n");
+		LocalDate date = parseDate(in.readLine());
+		System.out.print("\n");
+
+		int cusID = session.userID;
+		// the availability check and the booking are one step of the store.
+		HotelStore.Room room = esql.store().bookings().book(cusID, hotelID, rNum, date);
+		if(room != null){
+			System.out.println("Your room is now booked for that date! Your total will be: " + room.price);
+		}else{
 			System.out.print("The selected room is not available. Please try another option.\n");
 		}
 	}catch(Exception e){
 		 System.err.println (e.getMessage());
 	      }	 
    }
-   public static void viewRecentBookingsfromCustomer(Hotel esql,String authorisedUser) {
+   public static void viewRecentBookingsfromCustomer(Hotel esql, Session session) {
    	try{
 		System.out.print("\tNow browsing booking history: \n");
 
-		int cusID = Integer.parseInt(authorisedUser);
+		int cusID = session.userID;
 
-		 String query = String.format("SELECT * FROM roombookings WHERE customerid = '%d' ORDER BY bookingdate DESC LIMIT 5",cusID);
-		esql.executeQueryAndPrintResult(query);
+		List<HotelStore.Booking> bookings = esql.store().bookings().recentOfCustomer(cusID, RECENT_ROWS);
+		if(!bookings.isEmpty())
+			System.out.println("bookingid\tcustomerid\thotelid\troomnumber\tbookingdate\t");
+		for(HotelStore.Booking booking : bookings)
+			System.out.println(booking.bookingID + "\t" + booking.customerID + "\t" + booking.hotelID + "\t"
+			                   + booking.roomNumber + "\t" + booking.bookingDate + "\t");
 	 	System.out.print("\n");
 	      }catch(Exception e){
 		 System.err.println (e.getMessage());
 	      }
 
    }
-   public static void updateRoomInfo(Hotel esql,String authorisedUser) {
-   //Check if person if manager else return 
-   //call the update executeUpdate look at create user for help on updating the sql 
-   //get hotel id and room number 
-   //only update price and image url of the hotelid for that manager so you gotta check the hotel id with WHERE
-   //update rooms and roomupdatelogs. you maybe can ask user to enter date and time for update logs or use a jave timestamp function or sql trigger
-   //sql return result for the last 5 update so you can sql query the roomupdateslog for the last 5 or top 5 or whatever
+   /*
+    * Updates the price and imageURL of a room of a hotel managed by the
+    * authorised user. The update only applies if nobody changed the room
+    * since it was shown; otherwise the manager sees the new values and
+    * decides whether to apply the change on top of them.
+    **/
+   public static void updateRoomInfo(Hotel esql, Session session) {
 	try{
-		int ID = Integer.parseInt(authorisedUser);
-		System.out.println("\t"+ID);
+		int ID = session.userID;
+		HotelStore store = esql.store();
 		System.out.print("\tEnter hotelID: ");
 		Scanner input = new Scanner(System.in);
 		int hotelID= input.nextInt();
 		input.nextLine();
-		String checker = String.format("SELECT hotelName FROM hotel WHERE hotelID = '%d' AND managerUserID = '%d'",hotelID,ID);
-		List<List<String>> check = esql.executeQueryAndReturnResult(checker);
-		if(check.isEmpty()){
+		if(!session.manages(hotelID)){
 		
 		System.out.print("\tYou have no power here ");
 		return;
 		}
 		System.out.print("\tEnter roomNumber: ");
 		int roomNumber=input.nextInt();
-                String query = String.format("SELECT price,imageURL FROM Rooms WHERE hotelID = '%d' AND roomNumber ='%d'", hotelID, roomNumber);
-		List<List<String>> result = esql.executeQueryAndReturnResult(query);
-		System.out.println(result); //is this right?
-		if(result.isEmpty()){
+		HotelStore.Room room = store.rooms().find(hotelID, roomNumber);
+		if(room == null){
                         System.out.println("aint nothin here!");
-                }else{
-			System.out.print("\tUpdate Price: ");
-			int price=input.nextInt();
-			input.nextLine();
-			System.out.print("\tUpdate imageURL: ");
-			String imageURL=input.nextLine();
-			String query1 = String.format("UPDATE rooms SET  price='%d',imageURL = '%s'  WHERE hotelID = '%d' AND roomNumber = '%d'",price,imageURL,hotelID,roomNumber);
-			esql.executeUpdate(query1);
-                	String query2 = String.format("SELECT price,imageURL FROM Rooms WHERE hotelID = '%d' AND roomNumber ='%d'", hotelID, roomNumber);
-			List<List<String>> result2 = esql.executeQueryAndReturnResult(query2);
-			System.out.println(result2);
-			String oldStamp = String.format("SELECT updatedOn FROM RoomUpdatesLog WHERE managerID = '%d' AND hotelID = '%d' AND roomNumber ='%d'",ID,hotelID,roomNumber);
-			List<List<String>> stamp = esql.executeQueryAndReturnResult(oldStamp);
-			System.out.println(stamp);
-			//make a sql query that will update the time stamp for you.
-			Timestamp timestamp = new Timestamp(System.currentTimeMillis());
-			String timestamp1 = timestamp.toString();
-			String updateStamp = String.format("UPDATE RoomUpdatesLog SET updatedOn = CURRENT_TIMESTAMP WHERE managerID = '%d' AND hotelID = '%d' AND roomNumber ='%d'",ID,hotelID,roomNumber);
-			esql.executeUpdate(updateStamp);
-			String newStamp = String.format("SELECT updatedOn FROM RoomUpdatesLog WHERE managerID = '%d' AND hotelID = '%d' AND roomNumber ='%d'",ID,hotelID,roomNumber);
-			List<List<String>> nstamp = esql.executeQueryAndReturnResult(newStamp);
-			System.out.println(nstamp);
+                        return;
+                }
+		System.out.println("[" + room.price + ", " + room.imageURL + "]");
+		System.out.print("\tUpdate Price: ");
+		int price=input.nextInt();
+		input.nextLine();
+		System.out.print("\tUpdate imageURL: ");
+		String imageURL=input.nextLine();
+		while(true){
+			HotelStore.Room updated = store.rooms().update(room, price, imageURL);
+			if(updated != null){
+				System.out.println("[" + updated.price + ", " + updated.imageURL + "]");
+				store.updates().log(ID,hotelID,roomNumber);
+				return;
+			}
+			// someone else updated the room since it was read.
+			room = store.rooms().find(hotelID, roomNumber);
+			if(room == null){
+				System.out.println("aint nothin here!");
+				return;
+			}
+			System.out.println("\tThe room was changed meanwhile, it is now [" + room.price + ", " + room.imageURL + "]");
+			System.out.print("\tApply your update anyway? (y/n): ");
+			if(!input.nextLine().trim().equalsIgnoreCase("y"))
+				return;
 		}
 	} catch(Exception e){
 		System.err.println(e.getMessage());
 	}
    }
-   public static void viewRecentUpdates(Hotel esql, String authorisedUser) {
+   public static void viewRecentUpdates(Hotel esql, Session session) {
    	try{
 		// From PDF: Managers can also view the info of the last 5 recent updates of their hotels
-		int ID = Integer.parseInt(authorisedUser);
-		System.out.println("\t"+ID);
-		String updates = String.format("SELECT * FROM roomUpdatesLog WHERE  managerID = '%d' ORDER BY  updatedOn DESC LIMIT 5", ID);
-		List<List<String>> iupdates = esql.executeQueryAndReturnResult(updates);
-		//make look nice how?
-		//
-		for(int i = 0; i<iupdates.size();i++){
-				String formated =("HotelID: "+ iupdates.get(i).get(2)+" Room#: "+iupdates.get(i).get(3)+" Timestamp: "+iupdates.get(i).get(4));
-				System.out.println(formated);
-			}
-
-
+		int ID = session.userID;
+		for(HotelStore.RoomUpdate update : esql.store().updates().recentOfManager(ID, RECENT_ROWS))
+			System.out.println("HotelID: "+ update.hotelID+" Room#: "+update.roomNumber+" Timestamp: "+update.updatedOn);
 	} catch(Exception e) {
 		System.err.println(e.getMessage());
 	}
    }
-   public static void viewBookingHistoryofHotel(Hotel esql, String authorisedUser) { //This
+   public static void viewBookingHistoryofHotel(Hotel esql, Session session) {
 	 try{
+                HotelStore store = esql.store();
 
-                int ID = Integer.parseInt(authorisedUser);
-
-
-                String query1 = String.format("SELECT DISTINCT manageruserid FROM hotel WHERE manageruserid = '%d'", ID);
-                int isManager = (esql.executeQuery(query1));
-
-                if(isManager == 1){
+                if(session.isManager()){
 
                         System.out.print("You are a manager.");
                         System.out.print("\tEnter hotelID: ");
-                        Scanner input = new Scanner(System.in);
-                        int hotelID= input.nextInt();
-                        input.nextLine();
-
-                        String query2 = String.format("SELECT * FROM hotel WHERE manageruserid = '%d' AND hotelid = '%d'", ID, hotelID);
-                        int managesHotel = (esql.executeQuery(query2));
+                        int hotelID = Integer.parseInt(in.readLine().trim());
 
-                        if(managesHotel == 1){
+                        if(session.manages(hotelID)){
 
 				System.out.print("Enter start date: ");
-				String range1 = in.readLine();
+				LocalDate range1 = parseDate(in.readLine());
 				System.out.print("Enter end date: ");
-				String range2 = in.readLine();
-
-
-
-
-                                String query = String.format("SELECT DISTINCT bookingid, hotelid, roomnumber, bookingdate, name FROM roombookings, users WHERE hotelid = '%d' AND bookingdate BETWEEN '%s' AND '%s' AND customerid = userid", hotelID, range1, range2);
-
-                                 esql.executeQueryAndPrintResult(query);
+				LocalDate range2 = parseDate(in.readLine());
+
+				List<HotelStore.Booking> bookings = store.bookings().ofHotel(hotelID, range1, range2);
+				if(!bookings.isEmpty())
+					System.out.println("bookingid\thotelid\troomnumber\tbookingdate\tname\t");
+				for(HotelStore.Booking booking : bookings)
+					System.out.println(booking.bookingID + "\t" + booking.hotelID + "\t" + booking.roomNumber + "\t"
+					                   + booking.bookingDate + "\t" + booking.customerName + "\t");
                         }
                         else{
                                 System.out.print("You do not manage this hotel.");
                         }
-
-
-
-
                 }
                 else{
-
                         System.out.print("You are not an authorized manager.\n");
-
-
 		}
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
    }
 
-   public static void viewRegularCustomers(Hotel esql, String authorisedUser) { //This
+   public static void viewRegularCustomers(Hotel esql, Session session) {
 	   try{
-		
-		int ID = Integer.parseInt(authorisedUser);		
-
+		HotelStore store = esql.store();
 
-		String query1 = String.format("SELECT DISTINCT manageruserid FROM hotel WHERE manageruserid = '%d'", ID);
-		int isManager = (esql.executeQuery(query1));
-		
-		if(isManager == 1){ 
+		if(session.isManager()){
 
 			System.out.print("You are a manager.");
 			System.out.print("\tEnter hotelID: ");
-                	Scanner input = new Scanner(System.in);
-                	int hotelID= input.nextInt();
-                	input.nextLine();
+			int hotelID = Integer.parseInt(in.readLine().trim());
 
-			String query2 = String.format("SELECT * FROM hotel WHERE manageruserid = '%d' AND hotelid = '%d'", ID, hotelID);
-		        int managesHotel = (esql.executeQuery(query2));	
-
-			if(managesHotel == 1){
-				String query = String.format("SELECT customerid FROM roombookings WHERE hotelid = '%d' GROUP BY customerid ORDER BY COUNT (bookingid) DESC LIMIT 5", hotelID);
-
-               			 esql.executeQueryAndPrintResult(query);
+			if(session.manages(hotelID)){
+				System.out.println("customerid\tbookings\t");
+				for(int[] regular : store.bookings().topCustomers(hotelID, 5))
+					System.out.println(regular[0] + "\t" + regular[1] + "\t");
 			}
 			else{
 				System.out.print("You do not manage this hotel.");
 			}
-
-
-
-
 		}
 		else{
-
 			System.out.print("You are not an authorized manager.\n");
-
-}
-
- 
+		}
 	}catch(Exception e) {
                 System.err.println(e.getMessage());
         }
    }
-   public static void placeRoomRepairRequests(Hotel esql, String authorisedUser) {
+   /*
+    * Files repair requests for one or more rooms of a hotel, only if the
+    * hotel is managed by the authorised user. Several rooms are filed
+    * together in one step of the store.
+    **/
+   public static void placeRoomRepairRequests(Hotel esql, Session session) {
    	try{
-		//make sure you're a manager
-		int ID = Integer.parseInt(authorisedUser);
-                System.out.println("\t"+ID);
+		int ID = session.userID;
                 System.out.print("\tEnter hotelID: ");
-                Scanner input = new Scanner(System.in);
-                int hotelID= input.nextInt();
-                input.nextLine();
-		System.out.print("\tEnter roomNumber: ");
-		int roomNumber= input.nextInt();
-                input.nextLine();
+                int hotelID = Integer.parseInt(in.readLine().trim());
+		System.out.print("\tEnter roomNumber (several separated by commas): ");
+		String[] rooms = in.readLine().split(",");
 		System.out.print("\tEnter companyID: ");
-                int companyID= input.nextInt();
-
-                String query = String.format("INSERT INTO roomRepairs (companyID,hotelID,roomNumber,repairDate) VALUES ('%d','%d','%d',CURRENT_DATE)",companyID,hotelID,roomNumber);
-        	esql.executeUpdate(query);
-		int reparID = esql.getCurrSeqVal("roomRepairs_repairID_seq");
-		String query1 = String.format("INSERT INTO roomRepairRequests (managerID,repairID) VALUES ('%d', '%d')",ID,esql.getCurrSeqVal("roomRepairs_repairID_seq"));
-		esql.executeUpdate(query1);
-		//List<List<String>> r = esql.executeQueryAndReturnResult("SELECT * FROM roomRepairs");
-		//System.out.println(r);
-        	System.out.println ("successfully created request with ID#" + esql.getCurrSeqVal("roomRepairs_repairID_seq"));
-	//	String res = ("SELECT * FROM roomRepairRequests");
-		
-        //        System.out.println(esql.executeQueryAndReturnResult(res));
+                int companyID = Integer.parseInt(in.readLine().trim());
+		if(!session.manages(hotelID)){
+			System.out.println("\tYou have no power here ");
+			return;
+		}
+
+		if(rooms.length == 1){
+			int repairID = esql.store().repairs().request(ID, hotelID, Integer.parseInt(rooms[0].trim()), companyID);
+			if(repairID == -1){
+				System.out.println("\tNo such room or company ");
+				return;
+			}
+			System.out.println ("successfully created request with ID#" + repairID);
+			return;
+		}
+
+		int[] roomNumbers = new int[rooms.length];
+		for(int i = 0; i < rooms.length; i++)
+			roomNumbers[i] = Integer.parseInt(rooms[i].trim());
+		int placed = esql.store().repairs().requestAll(ID, hotelID, roomNumbers, companyID);
+		if(placed == 0){
+			System.out.println("\tNo such rooms or company ");
+			return;
+		}
+		System.out.println ("successfully created " + placed + " repair requests");
+		if(placed < roomNumbers.length)
+			System.out.println ("\t" + (roomNumbers.length - placed) + " rooms not found, skipped");
 	}catch(Exception e) {
                 System.err.println(e.getMessage());
         }
    }
-   public static void viewRoomRepairHistory(Hotel esql,String authorisedUser) {
+   public static void viewRoomRepairHistory(Hotel esql, Session session) {
    	try{
-		int ID = Integer.parseInt(authorisedUser);
-		String checker = String.format("SELECT hotelID FROM hotel WHERE  managerUserID = '%d'",ID);
-                List<List<String>> check = esql.executeQueryAndReturnResult(checker);
-		List<Integer> hID = new ArrayList<Integer>();
-                if(check.isEmpty()){
-
+		int ID = session.userID;
+		HotelStore store = esql.store();
+                if(!session.isManager()){
                 System.out.print("\tYou have no power here ");
                 return;
                 }
 
-		
-		esql.executeQueryAndPrintResult(String.format("SELECT * FROM roomRepairs WHERE hotelID IN(SELECT hotelID FROM hotel WHERE managerUserID = '%d') ORDER BY repairDate DESC",ID)); 
+		List<HotelStore.Repair> repairs = store.repairs().ofManager(ID);
+		if(!repairs.isEmpty())
+			System.out.println("repairid\tcompanyid\thotelid\troomnumber\trepairdate\t");
+		for(HotelStore.Repair repair : repairs)
+			System.out.println(repair.repairID + "\t" + repair.companyID + "\t" + repair.hotelID + "\t"
+			                   + repair.roomNumber + "\t" + repair.repairDate + "\t");
+	}catch(Exception e){
+   	System.err.println(e.getMessage());
+	}
+   }
+
+   /*
+    * Repair analytics of the hotels managed by the authorised user: repairs
+    * per room with the mean days between them, per company and per month.
+    * Everything is read from the aggregate tables maintained on insert into
+    * RoomRepairs, not from the repair history itself.
+    **/
+   public static void viewRepairAnalytics(Hotel esql, Session session) {
+   	try{
+		int ID = session.userID;
+		if(!session.isManager()){
+			System.out.print("\tYou have no power here ");
+			return;
+		}
+		// the three reports are independent and run concurrently.
+		CompletableFuture<String> perRoom = esql.executeQueryAndFormatAsync(String.format(
+			"SELECT s.hotelID, s.roomNumber, s.repairCount, s.lastRepair, " +
+			"CASE WHEN s.repairCount > 1 THEN round((s.lastRepair - s.firstRepair)::numeric / (s.repairCount - 1), 1) END AS meanDaysBetween " +
+			"FROM RoomRepairStats s JOIN hotel h ON h.hotelID = s.hotelID WHERE h.managerUserID = '%d' " +
+			"ORDER BY s.repairCount DESC, s.hotelID, s.roomNumber",ID));
+		CompletableFuture<String> perCompany = esql.executeQueryAndFormatAsync(String.format(
+			"SELECT s.companyID, c.name, SUM(s.repairCount) AS repairCount " +
+			"FROM CompanyRepairStats s JOIN hotel h ON h.hotelID = s.hotelID JOIN MaintenanceCompany c ON c.companyID = s.companyID " +
+			"WHERE h.managerUserID = '%d' GROUP BY s.companyID, c.name ORDER BY repairCount DESC",ID));
+		CompletableFuture<String> perMonth = esql.executeQueryAndFormatAsync(String.format(
+			"SELECT to_char(s.repairMonth, 'YYYY-MM') AS month, SUM(s.repairCount) AS repairCount " +
+			"FROM MonthlyRepairStats s JOIN hotel h ON h.hotelID = s.hotelID WHERE h.managerUserID = '%d' " +
+			"GROUP BY s.repairMonth ORDER BY s.repairMonth DESC",ID));
+		System.out.println("\tRepairs per room:");
+		System.out.print(perRoom.join());
+		System.out.println("\tRepairs per company:");
+		System.out.print(perCompany.join());
+		System.out.println("\tRepairs per month:");
+		System.out.print(perMonth.join());
+	}catch(Exception e){
+		System.err.println(e.getMessage());
+	}
+   }
+
+   /*
+    * Occupancy and revenue per day, month or season of every hotel managed
+    * by the authorised user, computed in parallel over the booking snapshot
+    * and written to the console or a CSV file.
+    **/
+   public static void viewOccupancyReport(Hotel esql, Session session) {
+   	try{
+		int ID = session.userID;
+		if(!session.isManager()){
+			System.out.print("\tYou have no power here ");
+			return;
+		}
+		List<List<String>> rooms = esql.executeQueryAndReturnResult(String.format(
+			"SELECT r.hotelID, r.roomNumber, r.price FROM Rooms r JOIN hotel h ON h.hotelID = r.hotelID " +
+			"WHERE h.managerUserID = '%d' ORDER BY r.hotelID, r.roomNumber",ID));
+		if(rooms.isEmpty()){
+			System.out.print("\tYou have no power here ");
+			return;
+		}
+		Map<Integer,int[]> prices = new HashMap<Integer,int[]>();
+		Map<Integer,Integer> roomCount = new HashMap<Integer,Integer>();
+		for(List<String> room : rooms){
+			int hotelID = Integer.parseInt(room.get(0));
+			int roomNumber = Integer.parseInt(room.get(1));
+			int[] hotelPrices = prices.get(hotelID);
+			if(hotelPrices == null || hotelPrices.length <= roomNumber)
+				hotelPrices = Arrays.copyOf(hotelPrices == null ? new int[0] : hotelPrices, roomNumber + 1);
+			hotelPrices[roomNumber] = Integer.parseInt(room.get(2));
+			prices.put(hotelID, hotelPrices);
+			Integer count = roomCount.get(hotelID);
+			roomCount.put(hotelID, count == null ? 1 : count + 1);
+		}
+		int[] hotels = new int[roomCount.size()];
+		int h = 0;
+		for(Integer hotelID : new TreeSet<Integer>(roomCount.keySet()))
+			hotels[h++] = hotelID;
+
+		DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy/M/d");
+		System.out.print("\tEnter start Date (yyyy/MM/dd): ");
+		LocalDate from = LocalDate.parse(in.readLine().trim(), format);
+		System.out.print("\tEnter end Date (yyyy/MM/dd): ");
+		LocalDate to = LocalDate.parse(in.readLine().trim(), format);
+		if(to.isBefore(from)){
+			System.out.println("\tThe end date must not be before the start date.");
+			return;
+		}
+		System.out.print("\tPer day, month or season: ");
+		OccupancyReport.Period period = OccupancyReport.Period.valueOf(in.readLine().trim().toUpperCase());
+		System.out.print("\tCSV file (empty for console): ");
+		String file = in.readLine().trim();
+
+		OccupancyReport report = new OccupancyReport(esql.bookingSnapshot(), prices, roomCount);
+		if(file.isEmpty()){
+			report.write(System.out, hotels, from, to, period);
+		}else{
+			PrintStream out = new PrintStream(new FileOutputStream(file));
+			try{
+				report.write(out, hotels, from, to, period);
+			}finally{
+				out.close();
+			}
+			System.out.println("\tReport written to " + file);
 		}
+	}catch(Exception e){
+		System.err.println(e.getMessage());
+	}
+   }
 
+   /*
+    * Changes the price of every room of a hotel managed by the authorised
+    * user by a percentage. Prices are applied with repriceRooms; rooms
+    * changed by someone else meanwhile are re-read and the percentage is
+    * applied to their new price, up to REPRICE_RETRIES times.
+    **/
+   public static void bulkRepriceRooms(Hotel esql, Session session) {
+   	try{
+		int ID = session.userID;
+		System.out.print("\tEnter hotelID: ");
+		int hotelID = Integer.parseInt(in.readLine().trim());
+		if(!session.manages(hotelID)){
+			System.out.print("\tYou have no power here ");
+			return;
+		}
+		System.out.print("\tChange prices by percent (e.g. 10 or -5): ");
+		double percent = Double.parseDouble(in.readLine().trim());
+
+		String rooms = String.format(
+			"SELECT r.roomNumber, r.price, r.version FROM Rooms r JOIN hotel h ON h.hotelID = r.hotelID " +
+			"WHERE r.hotelID = '%d' AND h.managerUserID = '%d'",hotelID,ID);
+		List<List<String>> current = esql.executeQueryAndReturnResult(rooms);
+		if(current.isEmpty()){
+			System.out.print("\tYou have no power here ");
+			return;
+		}
+		int updated = 0;
+		for(int attempt = 0; attempt <= REPRICE_RETRIES && !current.isEmpty(); attempt++){
+			List<int[]> changes = new ArrayList<int[]>();
+			for(List<String> room : current){
+				int price = (int) Math.round(Integer.parseInt(room.get(1)) * (1 + percent / 100));
+				changes.add(new int[] { hotelID, Integer.parseInt(room.get(0)), Integer.parseInt(room.get(2)), price });
+			}
+			List<int[]> conflicts = esql.repriceRooms(changes);
+			for(int[] change : changes)
+				if(!conflicts.contains(change))
+					esql.store().updates().log(ID, hotelID, change[1]);
+			updated += changes.size() - conflicts.size();
+			if(conflicts.isEmpty())
+				break;
+			StringBuilder numbers = new StringBuilder();
+			for(int[] conflict : conflicts)
+				numbers.append(numbers.length() == 0 ? "" : ",").append(conflict[1]);
+			current = esql.executeQueryAndReturnResult(rooms + " AND r.roomNumber IN (" + numbers + ")");
+			if(attempt == REPRICE_RETRIES)
+				System.out.println("\tRooms still changing, not repriced: " + numbers);
+		}
+		System.out.println("\tRepriced " + updated + " rooms");
+	}catch(Exception e){
+		System.err.println(e.getMessage());
+	}
+   }
 
-		
-   	catch(Exception e){
-   	System.err.println(e.getMessage());
-   		}
+   /*
+    * Exports the bookings, repairs or room updates of a hotel managed by the
+    * authorised user in a date range to a file; .gz files are compressed.
+    **/
+   public static void exportHistory(Hotel esql, Session session) {
+   	try{
+		System.out.print("\tEnter hotelID: ");
+		int hotelID = Integer.parseInt(in.readLine().trim());
+		if(!session.manages(hotelID)){
+			System.out.print("\tYou have no power here ");
+			return;
+		}
+		System.out.print("\tExport bookings, repairs or updates? ");
+		HistoryExport.Table table = HistoryExport.Table.valueOf(in.readLine().trim().toUpperCase());
+		System.out.print("Enter start date: ");
+		LocalDate from = parseDate(in.readLine());
+		System.out.print("Enter end date: ");
+		LocalDate to = parseDate(in.readLine());
+		System.out.print("\tFormat, csv or columnar: ");
+		HistoryExport.Format format = HistoryExport.Format.valueOf(in.readLine().trim().toUpperCase());
+		System.out.print("\tEnter file (ending in .gz to compress): ");
+		File file = new File(in.readLine().trim());
+
+		long start = System.currentTimeMillis();
+		long rows = esql.exportHistory(table, hotelID, from, to, format, file);
+		long millis = Math.max(1, System.currentTimeMillis() - start);
+		System.out.println(String.format("\tExported %d rows, %d bytes in %d ms", rows, file.length(), millis));
+	}catch(Exception e){
+		System.err.println(e.getMessage());
+	}
+   }
+
+   /*
+    * Imports a partner's file of bookings; only for admin users. Rows that
+    * cannot be booked go to a reject file next to it, with the reason.
+    **/
+   public static void importGroupBookings(Hotel esql, Session session) {
+   	try{
+		if(!session.isAdmin()){
+			System.out.print("\tYou have no power here ");
+			return;
+		}
+		System.out.print("\tEnter bookings file (customerID,hotelID,roomNumber,bookingDate): ");
+		File file = new File(in.readLine().trim());
+		File rejects = new File(file.getPath() + ".rejects.csv");
+		long start = System.currentTimeMillis();
+		int[] counts = esql.importBookings(file, rejects);
+		System.out.println(String.format("\tImported %d bookings in %d ms, rejected %d (see %s)",
+		                                 counts[0], System.currentTimeMillis() - start, counts[1], rejects));
+	}catch(Exception e){
+		System.err.println(e.getMessage());
+	}
    }
 
 }//end HotelA
@@ -0,0 +1,194 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * This interface is the data access of the menu operations, one repository
+ * per table. PostgresStore implements it on the database through the Hotel
+ * helpers; MemoryStore implements it in memory, loaded from the CSV files,
+ * for demos, tests and benchmarks without a database server.
+ *
+ * Both implementations keep the same semantics: a booking only succeeds if
+ * the room is free on that date, room updates are compare-and-set on the
+ * room version, and repair requests are only placed for managed hotels.
+ * A missing customer, room or company is reported through the return value
+ * (null, -1 or a lower count), never as a foreign key error.
+ */
+public interface HotelStore {
+
+   UserRepository users();
+   HotelRepository hotels();
+   RoomRepository rooms();
+   BookingRepository bookings();
+   UpdateRepository updates();
+   RepairRepository repairs();
+
+   void close();
+
+   // ---------------------------------------------------------------- rows
+
+   class User {
+      public final int userID;
+      public final String name;
+      public final String userType;
+
+      public User(int userID, String name, String userType) {
+         this.userID = userID;
+         this.name = name;
+         this.userType = userType;
+      }
+   }
+
+   class HotelInfo {
+      public final int hotelID;
+      public final String hotelName;
+      public final double latitude;
+      public final double longitude;
+      public final int managerUserID;
+
+      public HotelInfo(int hotelID, String hotelName, double latitude, double longitude, int managerUserID) {
+         this.hotelID = hotelID;
+         this.hotelName = hotelName;
+         this.latitude = latitude;
+         this.longitude = longitude;
+         this.managerUserID = managerUserID;
+      }
+   }
+
+   class Room {
+      public final int hotelID;
+      public final int roomNumber;
+      public final int price;
+      public final String imageURL;
+      public final int version;
+
+      public Room(int hotelID, int roomNumber, int price, String imageURL, int version) {
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+         this.price = price;
+         this.imageURL = imageURL;
+         this.version = version;
+      }
+   }
+
+   class Booking {
+      public final int bookingID;
+      public final int customerID;
+      public final int hotelID;
+      public final int roomNumber;
+      public final LocalDate bookingDate;
+      // name of the customer, only filled in by BookingRepository.ofHotel.
+      public final String customerName;
+
+      public Booking(int bookingID, int customerID, int hotelID, int roomNumber, LocalDate bookingDate,
+                     String customerName) {
+         this.bookingID = bookingID;
+         this.customerID = customerID;
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+         this.bookingDate = bookingDate;
+         this.customerName = customerName;
+      }
+   }
+
+   class RoomUpdate {
+      public final int updateNumber;
+      public final int managerID;
+      public final int hotelID;
+      public final int roomNumber;
+      public final Timestamp updatedOn;
+
+      public RoomUpdate(int updateNumber, int managerID, int hotelID, int roomNumber, Timestamp updatedOn) {
+         this.updateNumber = updateNumber;
+         this.managerID = managerID;
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+         this.updatedOn = updatedOn;
+      }
+   }
+
+   class Repair {
+      public final int repairID;
+      public final int companyID;
+      public final int hotelID;
+      public final int roomNumber;
+      public final LocalDate repairDate;
+
+      public Repair(int repairID, int companyID, int hotelID, int roomNumber, LocalDate repairDate) {
+         this.repairID = repairID;
+         this.companyID = companyID;
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+         this.repairDate = repairDate;
+      }
+   }
+
+   // -------------------------------------------------------- repositories
+
+   interface UserRepository {
+      /** @return the userID of the new user */
+      int create(String name, String password, String userType) throws SQLException;
+      /** @return the user, or null when the userID and password do not match */
+      User logIn(int userID, String password) throws SQLException;
+   }
+
+   interface HotelRepository {
+      /** @return the hotels within distance of the point, nearest first */
+      List<HotelInfo> near(double latitude, double longitude, double distance) throws SQLException;
+      boolean isManagedBy(int hotelID, int managerID) throws SQLException;
+      /** @return the IDs of the hotels managed by the user */
+      List<Integer> managedBy(int managerID) throws SQLException;
+   }
+
+   interface RoomRepository {
+      /** @return the room, or null when there is no such room */
+      Room find(int hotelID, int roomNumber) throws SQLException;
+      /**
+       * Sets price and imageURL if the room is still at room.version.
+       * @return the updated room, or null when the room changed meanwhile
+       */
+      Room update(Room room, int price, String imageURL) throws SQLException;
+   }
+
+   interface BookingRepository {
+      /** @return the rooms of the hotel not booked on the date, by roomNumber */
+      List<Room> available(int hotelID, LocalDate date) throws SQLException;
+      /**
+       * @return the booked room, or null when the room or customer does not
+       * exist or the room is not available on the date
+       */
+      Room book(int customerID, int hotelID, int roomNumber, LocalDate date) throws SQLException;
+      /** @return the latest bookings of the customer, latest bookingDate first */
+      List<Booking> recentOfCustomer(int customerID, int limit) throws SQLException;
+      /** @return the bookings of the hotel with from <= bookingDate <= to */
+      List<Booking> ofHotel(int hotelID, LocalDate from, LocalDate to) throws SQLException;
+      /** @return {customerID, bookings} of the customers booking the hotel most */
+      List<int[]> topCustomers(int hotelID, int limit) throws SQLException;
+   }
+
+   interface UpdateRepository {
+      /** Records an update; it may be written in the background, after which recentOfManager sees it. */
+      void log(int managerID, int hotelID, int roomNumber) throws SQLException;
+      /** @return the latest updates logged by the manager, latest first */
+      List<RoomUpdate> recentOfManager(int managerID, int limit) throws SQLException;
+   }
+
+   interface RepairRepository {
+      /**
+       * @return the repairID, or -1 when the hotel is not managed by the
+       * manager or the room or company does not exist
+       */
+      int request(int managerID, int hotelID, int roomNumber, int companyID) throws SQLException;
+      /**
+       * Places a request for each room as request() would, skipping the rooms
+       * that do not exist.
+       *
+       * @return the number of requests placed; 0 when the hotel is not managed by the manager
+       */
+      int requestAll(int managerID, int hotelID, int[] roomNumbers, int companyID) throws SQLException;
+      /** @return the repairs of the hotels managed by the manager, latest first */
+      List<Repair> ofManager(int managerID) throws SQLException;
+   }
+
+}//end HotelStore
@@ -0,0 +1,74 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class hands out values of a database sequence reserved blockSize at
+ * a time, so inserts can carry their own keys and know them without asking
+ * the database. A block is reserved with one query calling nextval
+ * blockSize times; every value is then the process's alone, also with
+ * concurrent sessions and serial defaults using the same sequence.
+ *
+ * next() takes a value with one atomic increment. Only the thread finding
+ * the block exhausted goes to the database, while the others wait for the
+ * new block. Values of a block left unused at exit are lost, leaving gaps.
+ */
+public class IdAllocator {
+
+   private static class Block {
+      final int[] ids;
+      final AtomicInteger next = new AtomicInteger();
+
+      Block(int[] ids) {
+         this.ids = ids;
+      }
+   }
+
+   private final Connection _connection;
+   private final String _sequence;
+   private final int _blockSize;
+   private final AtomicReference<Block> _block = new AtomicReference<Block>(new Block(new int[0]));
+
+   public IdAllocator(Connection connection, String sequence, int blockSize) {
+      this._connection = connection;
+      this._sequence = sequence;
+      this._blockSize = blockSize;
+   }
+
+   /**
+    * @return a value of the sequence no one else gets
+    * @throws java.sql.SQLException when failed to reserve a new block
+    */
+   public int next() throws SQLException {
+      while (true) {
+         Block block = _block.get();
+         int i = block.next.getAndIncrement();
+         if (i < block.ids.length)
+            return block.ids[i];
+         synchronized (this) {
+            if (_block.get() == block)
+               _block.set(new Block(reserve()));
+         }
+      }
+   }//end next
+
+   // one round trip for blockSize values of the sequence.
+   private int[] reserve() throws SQLException {
+      int[] ids = new int[_blockSize];
+      Statement stmt = _connection.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(String.format(
+            "SELECT nextval('%s') FROM generate_series(1, %d)", _sequence, _blockSize));
+         int n = 0;
+         while (rs.next())
+            ids[n++] = rs.getInt(1);
+         return ids;
+      } finally {
+         stmt.close();
+      }
+   }//end reserve
+
+}//end IdAllocator
@@ -0,0 +1,431 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class implements HotelStore entirely in memory. Lookups go through
+ * concurrent hash indexes; the bookings of each room are a sorted map from
+ * date to booking, so booking a room is a single putIfAbsent and a stay is
+ * a range of the map. Every index is safe for concurrent use.
+ *
+ * load() fills it from the CSV files of project/data.
+ */
+public class MemoryStore implements HotelStore,
+      HotelStore.UserRepository, HotelStore.HotelRepository, HotelStore.RoomRepository,
+      HotelStore.BookingRepository, HotelStore.UpdateRepository, HotelStore.RepairRepository {
+
+   // the date format of the CSV files.
+   static final DateTimeFormatter CSV_DATE = DateTimeFormatter.ofPattern("M/d/yyyy");
+
+   // users and their passwords, by userID; plaintext from users.csv until the first login.
+   private final Map<Integer, User> _users = new ConcurrentHashMap<Integer, User>();
+   private final Map<Integer, String> _passwords = new ConcurrentHashMap<Integer, String>();
+   private final AtomicInteger _nextUserID = new AtomicInteger(1);
+
+   // hotels by hotelID, and the hotelIDs of each manager.
+   private final Map<Integer, HotelInfo> _hotels = new ConcurrentHashMap<Integer, HotelInfo>();
+   private final Map<Integer, Set<Integer>> _hotelsOfManager = new ConcurrentHashMap<Integer, Set<Integer>>();
+
+   // rooms of each hotel by roomNumber.
+   private final Map<Integer, NavigableMap<Integer, Room>> _rooms =
+      new ConcurrentHashMap<Integer, NavigableMap<Integer, Room>>();
+
+   // bookings of each room by date, of each customer, and counts per customer of each hotel.
+   private final Map<Long, NavigableMap<LocalDate, Booking>> _bookingsOfRoom =
+      new ConcurrentHashMap<Long, NavigableMap<LocalDate, Booking>>();
+   private final Map<Integer, Set<Booking>> _bookingsOfCustomer = new ConcurrentHashMap<Integer, Set<Booking>>();
+   private final Map<Integer, Map<Integer, AtomicInteger>> _customersOfHotel =
+      new ConcurrentHashMap<Integer, Map<Integer, AtomicInteger>>();
+   private final AtomicInteger _nextBookingID = new AtomicInteger(1);
+
+   // room updates of each manager, latest first.
+   private final Map<Integer, Set<RoomUpdate>> _updatesOfManager = new ConcurrentHashMap<Integer, Set<RoomUpdate>>();
+   private final AtomicInteger _nextUpdateNumber = new AtomicInteger(1);
+
+   // maintenance companies by companyID, and repairs of each hotel.
+   private final Set<Integer> _companies = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+   private final Map<Integer, ConcurrentLinkedQueue<Repair>> _repairsOfHotel =
+      new ConcurrentHashMap<Integer, ConcurrentLinkedQueue<Repair>>();
+   private final AtomicInteger _nextRepairID = new AtomicInteger(1);
+
+   static final Comparator<Booking> LATEST_BOOKING_FIRST = new Comparator<Booking>() {
+      public int compare(Booking a, Booking b) {
+         int c = b.bookingDate.compareTo(a.bookingDate);
+         return c != 0 ? c : Integer.compare(b.bookingID, a.bookingID);
+      }
+   };
+
+   static final Comparator<RoomUpdate> LATEST_UPDATE_FIRST = new Comparator<RoomUpdate>() {
+      public int compare(RoomUpdate a, RoomUpdate b) {
+         int c = b.updatedOn.compareTo(a.updatedOn);
+         return c != 0 ? c : Integer.compare(b.updateNumber, a.updateNumber);
+      }
+   };
+
+   /**
+    * Creates a store holding the rows of the CSV files in dataDir.
+    *
+    * @param dataDir directory with users.csv, hotels.csv, rooms.csv,
+    *        company.csv, bookings.csv, roomRepairs.csv and roomUpdatesLog.csv
+    * @throws java.io.IOException when a file cannot be read
+    */
+   public static MemoryStore load(File dataDir) throws IOException {
+      MemoryStore store = new MemoryStore();
+      for (String[] row : csv(new File(dataDir, "users.csv"))) {
+         int userID = Integer.parseInt(row[0]);
+         store._users.put(userID, new User(userID, row[1], row[3]));
+         store._passwords.put(userID, row[2]);
+         bump(store._nextUserID, userID);
+      }
+      for (String[] row : csv(new File(dataDir, "hotels.csv")))
+         store.addHotel(new HotelInfo(Integer.parseInt(row[0]), row[1], Double.parseDouble(row[2]),
+                                      Double.parseDouble(row[3]), Integer.parseInt(row[5])));
+      for (String[] row : csv(new File(dataDir, "rooms.csv")))
+         store.putRoom(new Room(Integer.parseInt(row[0]), Integer.parseInt(row[1]), Integer.parseInt(row[2]), row[3], 0));
+      for (String[] row : csv(new File(dataDir, "company.csv")))
+         store._companies.add(Integer.parseInt(row[0]));
+      for (String[] row : csv(new File(dataDir, "bookings.csv"))) {
+         int bookingID = Integer.parseInt(row[0]);
+         store.addBooking(new Booking(bookingID, Integer.parseInt(row[1]), Integer.parseInt(row[2]),
+                                      Integer.parseInt(row[3]), LocalDate.parse(row[4], CSV_DATE), null));
+         bump(store._nextBookingID, bookingID);
+      }
+      for (String[] row : csv(new File(dataDir, "roomRepairs.csv"))) {
+         int repairID = Integer.parseInt(row[0]);
+         store.addRepair(new Repair(repairID, Integer.parseInt(row[1]), Integer.parseInt(row[2]),
+                                    Integer.parseInt(row[3]), LocalDate.parse(row[4], CSV_DATE)));
+         bump(store._nextRepairID, repairID);
+      }
+      for (String[] row : csv(new File(dataDir, "roomUpdatesLog.csv"))) {
+         int updateNumber = Integer.parseInt(row[0]);
+         store.addUpdate(new RoomUpdate(updateNumber, Integer.parseInt(row[1]), Integer.parseInt(row[2]),
+                                        Integer.parseInt(row[3]), Timestamp.valueOf(row[4])));
+         bump(store._nextUpdateNumber, updateNumber);
+      }
+      return store;
+   }//end load
+
+   // the data rows of a CSV file with a header line, fields trimmed.
+   private static List<String[]> csv(File file) throws IOException {
+      List<String[]> rows = new ArrayList<String[]>();
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      try {
+         String line = reader.readLine();
+         while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty())
+               continue;
+            String[] row = line.split(",", -1);
+            for (int i = 0; i < row.length; i++)
+               row[i] = row[i].trim();
+            rows.add(row);
+         }
+      } finally {
+         reader.close();
+      }
+      return rows;
+   }
+
+   // makes the next generated ID larger than id.
+   private static void bump(AtomicInteger next, int id) {
+      int current;
+      while ((current = next.get()) <= id && !next.compareAndSet(current, id + 1))
+         ;
+   }
+
+   private static long roomKey(int hotelID, int roomNumber) {
+      return ((long) hotelID << 32) | (roomNumber & 0xffffffffL);
+   }
+
+   private static <K, V> Set<V> setOf(Map<K, Set<V>> map, K key, Comparator<V> order) {
+      Set<V> set = map.get(key);
+      if (set == null) {
+         map.putIfAbsent(key, new ConcurrentSkipListSet<V>(order));
+         set = map.get(key);
+      }
+      return set;
+   }
+
+   private void addHotel(HotelInfo hotel) {
+      _hotels.put(hotel.hotelID, hotel);
+      setOf(_hotelsOfManager, hotel.managerUserID, Comparator.<Integer>naturalOrder()).add(hotel.hotelID);
+   }
+
+   private void putRoom(Room room) {
+      NavigableMap<Integer, Room> rooms = _rooms.get(room.hotelID);
+      if (rooms == null) {
+         _rooms.putIfAbsent(room.hotelID, new ConcurrentSkipListMap<Integer, Room>());
+         rooms = _rooms.get(room.hotelID);
+      }
+      rooms.put(room.roomNumber, room);
+   }
+
+   private NavigableMap<LocalDate, Booking> bookingsOfRoom(int hotelID, int roomNumber) {
+      long key = roomKey(hotelID, roomNumber);
+      NavigableMap<LocalDate, Booking> bookings = _bookingsOfRoom.get(key);
+      if (bookings == null) {
+         _bookingsOfRoom.putIfAbsent(key, new ConcurrentSkipListMap<LocalDate, Booking>());
+         bookings = _bookingsOfRoom.get(key);
+      }
+      return bookings;
+   }
+
+   // records a booking; false when the room is already booked that date.
+   private boolean addBooking(Booking booking) {
+      if (bookingsOfRoom(booking.hotelID, booking.roomNumber).putIfAbsent(booking.bookingDate, booking) != null)
+         return false;
+      setOf(_bookingsOfCustomer, booking.customerID, LATEST_BOOKING_FIRST).add(booking);
+      Map<Integer, AtomicInteger> customers = _customersOfHotel.get(booking.hotelID);
+      if (customers == null) {
+         _customersOfHotel.putIfAbsent(booking.hotelID, new ConcurrentHashMap<Integer, AtomicInteger>());
+         customers = _customersOfHotel.get(booking.hotelID);
+      }
+      AtomicInteger count = customers.get(booking.customerID);
+      if (count == null) {
+         customers.putIfAbsent(booking.customerID, new AtomicInteger());
+         count = customers.get(booking.customerID);
+      }
+      count.incrementAndGet();
+      return true;
+   }
+
+   private void addRepair(Repair repair) {
+      ConcurrentLinkedQueue<Repair> repairs = _repairsOfHotel.get(repair.hotelID);
+      if (repairs == null) {
+         _repairsOfHotel.putIfAbsent(repair.hotelID, new ConcurrentLinkedQueue<Repair>());
+         repairs = _repairsOfHotel.get(repair.hotelID);
+      }
+      repairs.add(repair);
+   }
+
+   private void addUpdate(RoomUpdate update) {
+      setOf(_updatesOfManager, update.managerID, LATEST_UPDATE_FIRST).add(update);
+   }
+
+   public UserRepository users() { return this; }
+   public HotelRepository hotels() { return this; }
+   public RoomRepository rooms() { return this; }
+   public BookingRepository bookings() { return this; }
+   public UpdateRepository updates() { return this; }
+   public RepairRepository repairs() { return this; }
+
+   public void close() {
+      // nothing to release.
+   }
+
+   // ---------------------------------------------------------------- users
+
+   public int create(String name, String password, String userType) {
+      int userID = _nextUserID.getAndIncrement();
+      _passwords.put(userID, PasswordHash.hash(password));
+      _users.put(userID, new User(userID, name, userType));
+      return userID;
+   }
+
+   public User logIn(int userID, String password) {
+      String stored = _passwords.get(userID);
+      if (stored == null)
+         return null;
+      if (PasswordHash.isHash(stored))
+         return PasswordHash.verify(password, stored) ? _users.get(userID) : null;
+      // plaintext from users.csv: checked once, then replaced by the hash.
+      if (!stored.equals(password))
+         return null;
+      _passwords.replace(userID, stored, PasswordHash.hash(password));
+      return _users.get(userID);
+   }
+
+   // --------------------------------------------------------------- hotels
+
+   public List<HotelInfo> near(final double latitude, final double longitude, double distance) {
+      List<HotelInfo> hotels = new ArrayList<HotelInfo>();
+      for (HotelInfo hotel : _hotels.values())
+         if (distance(latitude, longitude, hotel) <= distance)
+            hotels.add(hotel);
+      Collections.sort(hotels, new Comparator<HotelInfo>() {
+         public int compare(HotelInfo a, HotelInfo b) {
+            return Double.compare(distance(latitude, longitude, a), distance(latitude, longitude, b));
+         }
+      });
+      return hotels;
+   }
+
+   // the same euclidean distance as calculate_distance.
+   static double distance(double latitude, double longitude, HotelInfo hotel) {
+      double t1 = (latitude - hotel.latitude) * (latitude - hotel.latitude);
+      double t2 = (longitude - hotel.longitude) * (longitude - hotel.longitude);
+      return Math.sqrt(t1 + t2);
+   }
+
+   public boolean isManagedBy(int hotelID, int managerID) {
+      HotelInfo hotel = _hotels.get(hotelID);
+      return hotel != null && hotel.managerUserID == managerID;
+   }
+
+   public List<Integer> managedBy(int managerID) {
+      Set<Integer> hotels = _hotelsOfManager.get(managerID);
+      return hotels == null ? new ArrayList<Integer>() : new ArrayList<Integer>(hotels);
+   }
+
+   // ---------------------------------------------------------------- rooms
+
+   public Room find(int hotelID, int roomNumber) {
+      NavigableMap<Integer, Room> rooms = _rooms.get(hotelID);
+      return rooms == null ? null : rooms.get(roomNumber);
+   }
+
+   public Room update(Room room, int price, String imageURL) {
+      NavigableMap<Integer, Room> rooms = _rooms.get(room.hotelID);
+      if (rooms == null)
+         return null;
+      Room current = rooms.get(room.roomNumber);
+      if (current == null || current.version != room.version)
+         return null;
+      Room updated = new Room(room.hotelID, room.roomNumber, price, imageURL, current.version + 1);
+      // replace only succeeds if nobody swapped the room in between.
+      return rooms.replace(room.roomNumber, current, updated) ? updated : null;
+   }
+
+   // ------------------------------------------------------------- bookings
+
+   public List<Room> available(int hotelID, LocalDate date) {
+      List<Room> free = new ArrayList<Room>();
+      NavigableMap<Integer, Room> rooms = _rooms.get(hotelID);
+      if (rooms == null)
+         return free;
+      for (Room room : rooms.values()) {
+         NavigableMap<LocalDate, Booking> bookings = _bookingsOfRoom.get(roomKey(hotelID, room.roomNumber));
+         if (bookings == null || !bookings.containsKey(date))
+            free.add(room);
+      }
+      return free;
+   }
+
+   public Room book(int customerID, int hotelID, int roomNumber, LocalDate date) {
+      Room room = find(hotelID, roomNumber);
+      if (room == null || !_users.containsKey(customerID))
+         return null;
+      Booking booking = new Booking(_nextBookingID.getAndIncrement(), customerID, hotelID, roomNumber, date, null);
+      return addBooking(booking) ? room : null;
+   }
+
+   public List<Booking> recentOfCustomer(int customerID, int limit) {
+      List<Booking> recent = new ArrayList<Booking>();
+      Set<Booking> bookings = _bookingsOfCustomer.get(customerID);
+      if (bookings != null)
+         for (Booking booking : bookings) {
+            if (recent.size() == limit)
+               break;
+            recent.add(booking);
+         }
+      return recent;
+   }
+
+   public List<Booking> ofHotel(int hotelID, LocalDate from, LocalDate to) {
+      List<Booking> bookings = new ArrayList<Booking>();
+      NavigableMap<Integer, Room> rooms = _rooms.get(hotelID);
+      if (rooms == null)
+         return bookings;
+      for (Integer roomNumber : rooms.keySet()) {
+         NavigableMap<LocalDate, Booking> ofRoom = _bookingsOfRoom.get(roomKey(hotelID, roomNumber));
+         if (ofRoom == null)
+            continue;
+         for (Booking booking : ofRoom.subMap(from, true, to, true).values()) {
+            User customer = _users.get(booking.customerID);
+            bookings.add(new Booking(booking.bookingID, booking.customerID, booking.hotelID, booking.roomNumber,
+                                     booking.bookingDate, customer == null ? null : customer.name));
+         }
+      }
+      Collections.sort(bookings, new Comparator<Booking>() {
+         public int compare(Booking a, Booking b) {
+            int c = a.bookingDate.compareTo(b.bookingDate);
+            return c != 0 ? c : Integer.compare(a.bookingID, b.bookingID);
+         }
+      });
+      return bookings;
+   }
+
+   public List<int[]> topCustomers(int hotelID, int limit) {
+      List<int[]> counts = new ArrayList<int[]>();
+      Map<Integer, AtomicInteger> customers = _customersOfHotel.get(hotelID);
+      if (customers != null)
+         for (Map.Entry<Integer, AtomicInteger> entry : customers.entrySet())
+            counts.add(new int[] { entry.getKey(), entry.getValue().get() });
+      // most bookings first, ties broken by the lower customerID.
+      Collections.sort(counts, new Comparator<int[]>() {
+         public int compare(int[] a, int[] b) {
+            return a[1] != b[1] ? Integer.compare(b[1], a[1]) : Integer.compare(a[0], b[0]);
+         }
+      });
+      return counts.size() > limit ? new ArrayList<int[]>(counts.subList(0, limit)) : counts;
+   }
+
+   // -------------------------------------------------------------- updates
+
+   public void log(int managerID, int hotelID, int roomNumber) {
+      addUpdate(new RoomUpdate(_nextUpdateNumber.getAndIncrement(), managerID, hotelID, roomNumber,
+                               new Timestamp(System.currentTimeMillis())));
+   }
+
+   public List<RoomUpdate> recentOfManager(int managerID, int limit) {
+      List<RoomUpdate> recent = new ArrayList<RoomUpdate>();
+      Set<RoomUpdate> updates = _updatesOfManager.get(managerID);
+      if (updates != null)
+         for (RoomUpdate update : updates) {
+            if (recent.size() == limit)
+               break;
+            recent.add(update);
+         }
+      return recent;
+   }
+
+   // -------------------------------------------------------------- repairs
+
+   public int request(int managerID, int hotelID, int roomNumber, int companyID) {
+      if (!isManagedBy(hotelID, managerID) || find(hotelID, roomNumber) == null || !_companies.contains(companyID))
+         return -1;
+      int repairID = _nextRepairID.getAndIncrement();
+      addRepair(new Repair(repairID, companyID, hotelID, roomNumber, LocalDate.now()));
+      return repairID;
+   }
+
+   public int requestAll(int managerID, int hotelID, int[] roomNumbers, int companyID) {
+      int placed = 0;
+      for (int roomNumber : roomNumbers)
+         if (request(managerID, hotelID, roomNumber, companyID) != -1)
+            placed++;
+      return placed;
+   }
+
+   public List<Repair> ofManager(int managerID) {
+      List<Repair> repairs = new ArrayList<Repair>();
+      for (Integer hotelID : managedBy(managerID)) {
+         ConcurrentLinkedQueue<Repair> ofHotel = _repairsOfHotel.get(hotelID);
+         if (ofHotel != null)
+            repairs.addAll(ofHotel);
+      }
+      Collections.sort(repairs, new Comparator<Repair>() {
+         public int compare(Repair a, Repair b) {
+            int c = b.repairDate.compareTo(a.repairDate);
+            return c != 0 ? c : Integer.compare(b.repairID, a.repairID);
+         }
+      });
+      return repairs;
+   }
+
+}//end MemoryStore
@@ -0,0 +1,215 @@
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class computes occupancy and revenue per hotel and per day, month or
+ * season from a BookingSnapshot and the room prices. Hotels are spread over
+ * a ForkJoinPool, and a hotel with many bookings in the range is split
+ * further by date. Every task sums into its own long[] accumulators, which
+ * are added together when the tasks join.
+ *
+ * Occupancy is booked room nights over rooms times days in the period;
+ * revenue is the sum of the current Rooms.price of each booked night.
+ */
+public class OccupancyReport {
+
+   public enum Period { DAY, MONTH, SEASON }
+
+   // bookings a single task handles without splitting further.
+   static final int SPLIT_THRESHOLD = 1 << 16;
+
+   static final String[] SEASONS = { "winter", "spring", "summer", "autumn" };
+
+   private final BookingSnapshot _snapshot;
+   // price of each room per hotel, indexed by roomNumber; 0 for no such room.
+   private final Map<Integer, int[]> _prices;
+   // number of rooms per hotel.
+   private final Map<Integer, Integer> _rooms;
+
+   public OccupancyReport(BookingSnapshot snapshot, Map<Integer, int[]> prices, Map<Integer, Integer> rooms) {
+      this._snapshot = snapshot;
+      this._prices = prices;
+      this._rooms = rooms;
+   }
+
+   /**
+    * Computes the report and writes it as CSV lines
+    * hotelID,period,roomNights,occupancy,revenue.
+    *
+    * @param out where the lines go
+    * @param hotels the hotels to report on
+    * @param from first day of the range
+    * @param to last day of the range
+    * @param period the period each line covers
+    * @throws java.lang.IllegalArgumentException when the range ends before it starts
+    */
+   public void write(PrintStream out, int[] hotels, LocalDate from, LocalDate to, Period period) {
+      if (to.isBefore(from))
+         throw new IllegalArgumentException("The end date " + to + " is before the start date " + from);
+      int fromDay = (int) from.toEpochDay();
+      int toDay = (int) to.toEpochDay();
+
+      // bucket of every day of the range, with the label and length of each bucket.
+      int[] dayBucket = new int[toDay - fromDay + 1];
+      List<String> labels = new ArrayList<String>();
+      List<Integer> lengths = new ArrayList<Integer>();
+      String last = null;
+      for (int day = fromDay; day <= toDay; day++) {
+         String label = label(LocalDate.ofEpochDay(day), period);
+         if (!label.equals(last)) {
+            labels.add(label);
+            lengths.add(0);
+            last = label;
+         }
+         int bucket = labels.size() - 1;
+         dayBucket[day - fromDay] = bucket;
+         lengths.set(bucket, lengths.get(bucket) + 1);
+      }
+
+      // the slice of each hotel, taken with the columns so they match.
+      int[] start = new int[hotels.length];
+      int[] end = new int[hotels.length];
+      int[] hotelID, roomNumber, bookingDate;
+      synchronized (_snapshot) {
+         hotelID = _snapshot.hotelIDs();
+         roomNumber = _snapshot.roomNumbers();
+         bookingDate = _snapshot.bookingDates();
+         for (int h = 0; h < hotels.length; h++) {
+            start[h] = _snapshot.lowerBound(hotels[h], fromDay);
+            end[h] = _snapshot.lowerBound(hotels[h], toDay + 1);
+         }
+      }
+
+      long[][] nights = new long[hotels.length][];
+      long[][] revenue = new long[hotels.length][];
+      Columns columns = new Columns(roomNumber, bookingDate, dayBucket, fromDay, labels.size());
+      ForkJoinPool.commonPool().invoke(new HotelsTask(columns, hotels, start, end, 0, hotels.length, nights, revenue));
+
+      out.println("hotelID,period,roomNights,occupancy,revenue");
+      for (int h = 0; h < hotels.length; h++) {
+         Integer rooms = _rooms.get(hotels[h]);
+         for (int b = 0; b < labels.size(); b++) {
+            long capacity = (long) (rooms == null ? 0 : rooms) * lengths.get(b);
+            double occupancy = capacity == 0 ? 0 : (double) nights[h][b] / capacity;
+            out.println(hotels[h] + "," + labels.get(b) + "," + nights[h][b] + ","
+                        + String.format("%.4f", occupancy) + "," + revenue[h][b]);
+         }
+      }
+      out.flush();
+   }//end write
+
+   static String label(LocalDate date, Period period) {
+      switch (period) {
+         case DAY: return date.toString();
+         case MONTH: return String.format("%04d-%02d", date.getYear(), date.getMonthValue());
+         default:
+            int month = date.getMonthValue();
+            // December opens the winter of the following year.
+            int year = month == 12 ? date.getYear() + 1 : date.getYear();
+            return year + "-" + SEASONS[(month % 12) / 3];
+      }
+   }
+
+   // the arrays shared, read only, by every task.
+   static class Columns {
+      final int[] roomNumber;
+      final int[] bookingDate;
+      final int[] dayBucket;
+      final int fromDay;
+      final int buckets;
+
+      Columns(int[] roomNumber, int[] bookingDate, int[] dayBucket, int fromDay, int buckets) {
+         this.roomNumber = roomNumber;
+         this.bookingDate = bookingDate;
+         this.dayBucket = dayBucket;
+         this.fromDay = fromDay;
+         this.buckets = buckets;
+      }
+   }
+
+   // splits the hotels in halves down to single hotels.
+   class HotelsTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      final Columns columns;
+      final int[] hotels, start, end;
+      final int lo, hi;
+      final long[][] nights, revenue;
+
+      HotelsTask(Columns columns, int[] hotels, int[] start, int[] end, int lo, int hi,
+                 long[][] nights, long[][] revenue) {
+         this.columns = columns;
+         this.hotels = hotels;
+         this.start = start;
+         this.end = end;
+         this.lo = lo;
+         this.hi = hi;
+         this.nights = nights;
+         this.revenue = revenue;
+      }
+
+      protected void compute() {
+         if (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new HotelsTask(columns, hotels, start, end, lo, mid, nights, revenue),
+                      new HotelsTask(columns, hotels, start, end, mid, hi, nights, revenue));
+            return;
+         }
+         if (hi == lo)
+            return;
+         int[] prices = _prices.get(hotels[lo]);
+         long[][] sums = new RangeTask(columns, prices == null ? new int[0] : prices, start[lo], end[lo]).compute();
+         nights[lo] = sums[0];
+         revenue[lo] = sums[1];
+      }
+   }//end HotelsTask
+
+   // sums the bookings of one hotel in [from, to), split by date when large.
+   static class RangeTask extends RecursiveTask<long[][]> {
+      private static final long serialVersionUID = 1L;
+      final Columns columns;
+      final int[] prices;
+      final int from, to;
+
+      RangeTask(Columns columns, int[] prices, int from, int to) {
+         this.columns = columns;
+         this.prices = prices;
+         this.from = from;
+         this.to = to;
+      }
+
+      protected long[][] compute() {
+         if (to - from > SPLIT_THRESHOLD) {
+            int mid = (from + to) >>> 1;
+            RangeTask right = new RangeTask(columns, prices, mid, to);
+            right.fork();
+            long[][] sums = new RangeTask(columns, prices, from, mid).compute();
+            long[][] other = right.join();
+            for (int b = 0; b < columns.buckets; b++) {
+               sums[0][b] += other[0][b];
+               sums[1][b] += other[1][b];
+            }
+            return sums;
+         }
+         long[] nights = new long[columns.buckets];
+         long[] revenue = new long[columns.buckets];
+         int[] roomNumber = columns.roomNumber;
+         int[] bookingDate = columns.bookingDate;
+         int[] dayBucket = columns.dayBucket;
+         int fromDay = columns.fromDay;
+         for (int i = from; i < to; i++) {
+            int b = dayBucket[bookingDate[i] - fromDay];
+            int room = roomNumber[i];
+            nights[b]++;
+            revenue[b] += room < prices.length ? prices[room] : 0;
+         }
+         return new long[][] { nights, revenue };
+      }
+   }//end RangeTask
+
+}//end OccupancyReport
@@ -0,0 +1,165 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * This class counts the statements the Hotel helpers send to the DBMS per
+ * menu operation: round trips, rows and time, in total and for the worst
+ * invocation. A statement whose shape (its text with the literals taken
+ * out) comes back REPEAT_THRESHOLD times or more within one invocation is
+ * reported as a likely N+1 pattern.
+ *
+ * Budgets give the most round trips one invocation of an operation may
+ * take. The report is CSV: one "op" line per operation, then one "repeat"
+ * line per repeated shape, so CI can check it, or just the exit status
+ * when overBudget() is used.
+ */
+public class OperationTracer {
+
+   // repeats of one statement shape within an invocation reported as N+1.
+   static final int REPEAT_THRESHOLD = 3;
+
+   // what is added up per operation.
+   private static class Totals {
+      int invocations;
+      long roundTrips;
+      int maxRoundTrips;
+      long rows;
+      long nanos;
+      // most repeats of each shape seen in one invocation.
+      final Map<String, Integer> repeats = new HashMap<String, Integer>();
+   }
+
+   private final Map<String, Totals> _totals = new LinkedHashMap<String, Totals>();
+   private final Map<String, Integer> _budgets = new HashMap<String, Integer>();
+
+   // the invocation running now.
+   private String _operation = null;
+   private int _roundTrips;
+   private final Map<String, Integer> _shapes = new HashMap<String, Integer>();
+
+   /**
+    * @param budgets properties file of operation=maxRoundTrips, or null
+    * @throws java.io.IOException when the budgets could not be read
+    */
+   public OperationTracer(File budgets) throws IOException {
+      if (budgets == null)
+         return;
+      Properties properties = new Properties();
+      InputStream in = new FileInputStream(budgets);
+      try {
+         properties.load(in);
+      } finally {
+         in.close();
+      }
+      for (String operation : properties.stringPropertyNames())
+         _budgets.put(operation, Integer.parseInt(properties.getProperty(operation).trim()));
+   }
+
+   /**
+    * Ends the running invocation, if any, and starts one of the operation.
+    */
+   public synchronized void begin(String operation) {
+      end();
+      _operation = operation;
+      _roundTrips = 0;
+      _shapes.clear();
+      totals(operation).invocations++;
+   }
+
+   public synchronized void end() {
+      if (_operation == null)
+         return;
+      Totals totals = totals(_operation);
+      totals.maxRoundTrips = Math.max(totals.maxRoundTrips, _roundTrips);
+      for (Map.Entry<String, Integer> shape : _shapes.entrySet()) {
+         if (shape.getValue() < REPEAT_THRESHOLD)
+            continue;
+         Integer seen = totals.repeats.get(shape.getKey());
+         if (seen == null || seen < shape.getValue())
+            totals.repeats.put(shape.getKey(), shape.getValue());
+      }
+      _operation = null;
+   }//end end
+
+   /**
+    * Counts one round trip of the running invocation, or of "(none)"
+    * outside of operations.
+    *
+    * @param sql the statement sent
+    * @param rows the rows it returned or changed
+    * @param nanos how long it took
+    */
+   public synchronized void record(String sql, int rows, long nanos) {
+      Totals totals = totals(_operation == null ? "(none)" : _operation);
+      totals.roundTrips++;
+      totals.rows += rows;
+      totals.nanos += nanos;
+      if (_operation == null) {
+         totals.maxRoundTrips = Math.max(totals.maxRoundTrips, 1);
+         return;
+      }
+      _roundTrips++;
+      String shape = shape(sql);
+      Integer count = _shapes.get(shape);
+      _shapes.put(shape, count == null ? 1 : count + 1);
+   }//end record
+
+   private Totals totals(String operation) {
+      Totals totals = _totals.get(operation);
+      if (totals == null) {
+         totals = new Totals();
+         _totals.put(operation, totals);
+      }
+      return totals;
+   }
+
+   /**
+    * @return the statement with its literals replaced by ?, so statements
+    * differing only in their values have the same shape
+    */
+   static String shape(String sql) {
+      return sql.replaceAll("'(?:[^']|'')*'", "?")
+                .replaceAll("\\b\\d+(\\.\\d+)?\\b", "?")
+                .replaceAll("\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)", "(?)")
+                .replaceAll("\\s+", " ")
+                .trim();
+   }
+
+   /**
+    * @return whether an invocation took more round trips than its budget
+    */
+   public synchronized boolean overBudget() {
+      for (Map.Entry<String, Totals> entry : _totals.entrySet()) {
+         Integer budget = _budgets.get(entry.getKey());
+         if (budget != null && entry.getValue().maxRoundTrips > budget)
+            return true;
+      }
+      return false;
+   }
+
+   public synchronized void report(PrintStream out) {
+      end();
+      out.println("# op,operation,invocations,roundTrips,maxRoundTrips,rows,millis,budget,status");
+      for (Map.Entry<String, Totals> entry : _totals.entrySet()) {
+         Totals totals = entry.getValue();
+         Integer budget = _budgets.get(entry.getKey());
+         out.println(String.format("op,%s,%d,%d,%d,%d,%d,%s,%s", entry.getKey(), totals.invocations,
+                                   totals.roundTrips, totals.maxRoundTrips, totals.rows, totals.nanos / 1000000,
+                                   budget == null ? "" : budget.toString(),
+                                   budget == null ? "" : totals.maxRoundTrips > budget ? "over" : "ok"));
+      }
+      out.println("# repeat,operation,timesInOneInvocation,statement");
+      for (Map.Entry<String, Totals> entry : _totals.entrySet())
+         for (Map.Entry<String, Integer> repeat : entry.getValue().repeats.entrySet())
+            out.println(String.format("repeat,%s,%d,\"%s\"", entry.getKey(), repeat.getValue(),
+                                      repeat.getKey().replace("\"", "\"\"")));
+   }//end report
+
+}//end OperationTracer
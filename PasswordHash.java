@@ -0,0 +1,71 @@
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * This class hashes passwords with PBKDF2-HMAC-SHA256 and a random salt
+ * per password. The stored form is pbkdf2$iterations$salt$hash, salt and
+ * hash in base64, so the iteration count can be raised later without
+ * invalidating existing hashes. ITERATIONS follows the OWASP advice for
+ * PBKDF2-HMAC-SHA256; hashes made with an older count still verify.
+ */
+public class PasswordHash {
+
+   static final String PREFIX = "pbkdf2$";
+   static final int ITERATIONS = 600000;
+   static final int SALT_BYTES = 16;
+   static final int HASH_BITS = 256;
+
+   private static final SecureRandom RANDOM = new SecureRandom();
+
+   private PasswordHash() {
+   }
+
+   /**
+    * @return the stored form of the password, with a new salt
+    */
+   public static String hash(String password) {
+      byte[] salt = new byte[SALT_BYTES];
+      RANDOM.nextBytes(salt);
+      Base64.Encoder base64 = Base64.getEncoder();
+      return PREFIX + ITERATIONS + "$" + base64.encodeToString(salt) + "$"
+             + base64.encodeToString(pbkdf2(password, salt, ITERATIONS));
+   }
+
+   /**
+    * @return whether the password matches the stored form
+    */
+   public static boolean verify(String password, String stored) {
+      if (!isHash(stored))
+         return false;
+      String[] parts = stored.split("\\$");
+      if (parts.length != 4)
+         return false;
+      Base64.Decoder base64 = Base64.getDecoder();
+      byte[] expected = base64.decode(parts[3]);
+      byte[] actual = pbkdf2(password, base64.decode(parts[2]), Integer.parseInt(parts[1]));
+      // compares in constant time.
+      return MessageDigest.isEqual(expected, actual);
+   }
+
+   /**
+    * @return whether the value is a stored form made by hash(), and not a
+    * plaintext password of an account not upgraded yet
+    */
+   public static boolean isHash(String stored) {
+      return stored != null && stored.startsWith(PREFIX);
+   }
+
+   private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+      try {
+         PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+         return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+      } catch (GeneralSecurityException e) {
+         throw new IllegalStateException("PBKDF2WithHmacSHA256 not available", e);
+      }
+   }
+
+}//end PasswordHash
@@ -0,0 +1,73 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.reflect.Constructor;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * This class runs COPY FROM STDIN and COPY TO STDOUT through the
+ * CopyManager of the PostgreSQL driver. The driver this project ships with
+ * (pg73) predates CopyManager, so it is looked up by reflection; callers
+ * check supported() and fall back to plain statements without it.
+ */
+public class PgCopy {
+
+   private PgCopy() {
+   }
+
+   /**
+    * @return whether the driver of the connection can stream COPY data
+    */
+   public static boolean supported(Connection connection) {
+      return copyManager(connection) != null;
+   }
+
+   /**
+    * Runs a COPY ... FROM STDIN with the data read from the reader.
+    */
+   public static void copyIn(Connection connection, String sql, Reader data) throws SQLException, IOException {
+      invoke(connection, "copyIn", sql, Reader.class, data);
+   }
+
+   /**
+    * Runs a COPY ... TO STDOUT, streaming the data into the output.
+    *
+    * @return the number of rows copied
+    */
+   public static long copyOut(Connection connection, String sql, OutputStream data) throws SQLException, IOException {
+      return ((Number) invoke(connection, "copyOut", sql, OutputStream.class, data)).longValue();
+   }
+
+   private static Object invoke(Connection connection, String method, String sql, Class<?> streamType, Object stream)
+         throws SQLException, IOException {
+      Object copyManager = copyManager(connection);
+      if (copyManager == null)
+         throw new SQLException("The JDBC driver does not support COPY streams");
+      try {
+         return copyManager.getClass().getMethod(method, String.class, streamType).invoke(copyManager, sql, stream);
+      } catch (Exception e) {
+         Throwable cause = e.getCause() != null ? e.getCause() : e;
+         if (cause instanceof SQLException)
+            throw (SQLException) cause;
+         if (cause instanceof IOException)
+            throw (IOException) cause;
+         throw new SQLException("COPY failed: " + cause.getMessage());
+      }
+   }//end invoke
+
+   // org.postgresql.copy.CopyManager of the connection, or null on drivers without it.
+   private static Object copyManager(Connection connection) {
+      try {
+         Class<?> managerClass = Class.forName("org.postgresql.copy.CopyManager");
+         for (Constructor<?> constructor : managerClass.getConstructors())
+            if (constructor.getParameterTypes().length == 1
+                && constructor.getParameterTypes()[0].isInstance(connection))
+               return constructor.newInstance(connection);
+      } catch (Exception e) {
+         // older driver.
+      }
+      return null;
+   }
+
+}//end PgCopy
@@ -0,0 +1,244 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class implements HotelStore on the database, through the query
+ * helpers of Hotel, so replica routing and the other helper features apply.
+ */
+public class PostgresStore implements HotelStore,
+      HotelStore.UserRepository, HotelStore.HotelRepository, HotelStore.RoomRepository,
+      HotelStore.BookingRepository, HotelStore.UpdateRepository, HotelStore.RepairRepository {
+
+   private final Hotel esql;
+
+   public PostgresStore(Hotel esql) {
+      this.esql = esql;
+   }
+
+   public UserRepository users() { return this; }
+   public HotelRepository hotels() { return this; }
+   public RoomRepository rooms() { return this; }
+   public BookingRepository bookings() { return this; }
+   public UpdateRepository updates() { return this; }
+   public RepairRepository repairs() { return this; }
+
+   public void close() {
+      esql.cleanup();
+   }
+
+   // ---------------------------------------------------------------- users
+
+   public int create(String name, String password, String userType) throws SQLException {
+      // the userID is known before the insert, so no lookup after it.
+      int userID = esql.nextID("users_userid_seq");
+      esql.executeUpdate(String.format(
+         "INSERT INTO USERS (userID, name, password, userType, passwordHash) VALUES ('%d','%s','', '%s', '%s')",
+         userID, name, userType, PasswordHash.hash(password)));
+      return userID;
+   }
+
+   public User logIn(int userID, String password) throws SQLException {
+      List<List<String>> result = esql.executeQueryAndReturnResult(String.format(
+         "SELECT userID, name, userType, password, passwordHash FROM USERS WHERE userID = '%d'", userID));
+      if (result.isEmpty())
+         return null;
+      List<String> row = result.get(0);
+      if (row.get(4) != null) {
+         if (!PasswordHash.verify(password, row.get(4)))
+            return null;
+      } else {
+         // account from before hashing: check the plaintext once and replace it by the hash.
+         if (!password.equals(trim(row.get(3))))
+            return null;
+         esql.executeUpdate(String.format("UPDATE USERS SET passwordHash = '%s', password = '' WHERE userID = '%d'",
+                                          PasswordHash.hash(password), userID));
+      }
+      return new User(Integer.parseInt(row.get(0)), trim(row.get(1)), trim(row.get(2)));
+   }
+
+   // --------------------------------------------------------------- hotels
+
+   public List<HotelInfo> near(double latitude, double longitude, double distance) throws SQLException {
+      // bounding box first so the Hotel location index applies, exact distance after.
+      List<List<String>> result = esql.executeQueryAndReturnResult(String.format(
+         "SELECT hotelID, hotelName, latitude, longitude, managerUserID FROM Hotel " +
+         "WHERE latitude BETWEEN %f AND %f AND longitude BETWEEN %f AND %f " +
+         "AND calculate_distance(%f, %f, latitude, longitude) <= %f " +
+         "ORDER BY calculate_distance(%f, %f, latitude, longitude)",
+         latitude - distance, latitude + distance, longitude - distance, longitude + distance,
+         latitude, longitude, distance, latitude, longitude));
+      List<HotelInfo> hotels = new ArrayList<HotelInfo>();
+      for (List<String> row : result)
+         hotels.add(new HotelInfo(Integer.parseInt(row.get(0)), trim(row.get(1)), Double.parseDouble(row.get(2)),
+                                  Double.parseDouble(row.get(3)), Integer.parseInt(row.get(4))));
+      return hotels;
+   }
+
+   public boolean isManagedBy(int hotelID, int managerID) throws SQLException {
+      return esql.executeQuery(String.format(
+         "SELECT hotelID FROM hotel WHERE hotelID = '%d' AND managerUserID = '%d'", hotelID, managerID)) > 0;
+   }
+
+   public List<Integer> managedBy(int managerID) throws SQLException {
+      List<Integer> hotels = new ArrayList<Integer>();
+      for (List<String> row : esql.executeQueryAndReturnResult(String.format(
+            "SELECT hotelID FROM hotel WHERE managerUserID = '%d' ORDER BY hotelID", managerID)))
+         hotels.add(Integer.parseInt(row.get(0)));
+      return hotels;
+   }
+
+   // ---------------------------------------------------------------- rooms
+
+   public Room find(int hotelID, int roomNumber) throws SQLException {
+      List<List<String>> result = esql.executeQueryAndReturnResult(String.format(
+         "SELECT hotelID, roomNumber, price, imageURL, version FROM Rooms WHERE hotelID = '%d' AND roomNumber = '%d'",
+         hotelID, roomNumber));
+      return result.isEmpty() ? null : room(result.get(0));
+   }
+
+   public Room update(Room room, int price, String imageURL) throws SQLException {
+      List<List<String>> result = esql.executeQueryAndReturnResult(String.format(
+         "UPDATE rooms SET price = '%d', imageURL = '%s', version = version + 1 " +
+         "WHERE hotelID = '%d' AND roomNumber = '%d' AND version = '%d' " +
+         "RETURNING hotelID, roomNumber, price, imageURL, version",
+         price, imageURL, room.hotelID, room.roomNumber, room.version));
+      return result.isEmpty() ? null : room(result.get(0));
+   }
+
+   private static Room room(List<String> row) {
+      return new Room(Integer.parseInt(row.get(0)), Integer.parseInt(row.get(1)), Integer.parseInt(row.get(2)),
+                      trim(row.get(3)), Integer.parseInt(row.get(4)));
+   }
+
+   // ------------------------------------------------------------- bookings
+
+   public List<Room> available(int hotelID, LocalDate date) throws SQLException {
+      List<Room> rooms = new ArrayList<Room>();
+      for (List<String> row : esql.executeQueryAndReturnResult(String.format(
+            "SELECT hotelID, roomNumber, price, imageURL, version FROM Rooms WHERE hotelID = '%d' " +
+            "AND roomNumber NOT IN (SELECT roomNumber FROM RoomBookings WHERE hotelID = '%d' AND bookingDate = '%s'::date) " +
+            "ORDER BY roomNumber", hotelID, hotelID, date)))
+         rooms.add(room(row));
+      return rooms;
+   }
+
+   public Room book(int customerID, int hotelID, int roomNumber, LocalDate date) throws SQLException {
+      esql.ensureBookingPartition(date);
+      // customer and availability checks, insert and price in one statement.
+      List<List<String>> result = esql.executeQueryAndReturnResult(String.format(
+         "WITH booking AS (INSERT INTO RoomBookings (bookingDate, hotelID, roomNumber, customerID) " +
+         "SELECT '%s'::date, hotelID, roomNumber, '%d' FROM Rooms WHERE hotelID = '%d' AND roomNumber = '%d' " +
+         "AND EXISTS (SELECT 1 FROM Users WHERE userID = '%d') " +
+         "AND NOT EXISTS (SELECT 1 FROM RoomBookings WHERE bookingDate = '%s'::date AND hotelID = '%d' AND roomNumber = '%d') " +
+         "RETURNING hotelID, roomNumber) " +
+         "SELECT r.hotelID, r.roomNumber, r.price, r.imageURL, r.version FROM booking b JOIN Rooms r " +
+         "ON r.hotelID = b.hotelID AND r.roomNumber = b.roomNumber",
+         date, customerID, hotelID, roomNumber, customerID, date, hotelID, roomNumber));
+      return result.isEmpty() ? null : room(result.get(0));
+   }
+
+   public List<Booking> recentOfCustomer(int customerID, int limit) throws SQLException {
+      return bookings(esql.executeQueryAndReturnResult(String.format(
+         "SELECT bookingID, customerID, hotelID, roomNumber, bookingDate, NULL FROM RoomBookings " +
+         "WHERE customerID = '%d' ORDER BY bookingDate DESC, bookingID DESC LIMIT %d", customerID, limit)));
+   }
+
+   public List<Booking> ofHotel(int hotelID, LocalDate from, LocalDate to) throws SQLException {
+      return bookings(esql.executeQueryAndReturnResult(String.format(
+         "SELECT b.bookingID, b.customerID, b.hotelID, b.roomNumber, b.bookingDate, u.name " +
+         "FROM RoomBookings b JOIN Users u ON u.userID = b.customerID " +
+         "WHERE b.hotelID = '%d' AND b.bookingDate BETWEEN '%s'::date AND '%s'::date " +
+         "ORDER BY b.bookingDate, b.bookingID", hotelID, from, to)));
+   }
+
+   private static List<Booking> bookings(List<List<String>> result) {
+      List<Booking> bookings = new ArrayList<Booking>();
+      for (List<String> row : result)
+         bookings.add(new Booking(Integer.parseInt(row.get(0)), Integer.parseInt(row.get(1)),
+                                  Integer.parseInt(row.get(2)), Integer.parseInt(row.get(3)),
+                                  LocalDate.parse(row.get(4)), trim(row.get(5))));
+      return bookings;
+   }
+
+   public List<int[]> topCustomers(int hotelID, int limit) throws SQLException {
+      List<int[]> top = new ArrayList<int[]>();
+      for (List<String> row : esql.executeQueryAndReturnResult(String.format(
+            "SELECT customerID, COUNT(*) FROM RoomBookings WHERE hotelID = '%d' " +
+            "GROUP BY customerID ORDER BY COUNT(*) DESC, customerID LIMIT %d", hotelID, limit)))
+         top.add(new int[] { Integer.parseInt(row.get(0)), Integer.parseInt(row.get(1)) });
+      return top;
+   }
+
+   // -------------------------------------------------------------- updates
+
+   public void log(int managerID, int hotelID, int roomNumber) throws SQLException {
+      esql.auditRoomUpdate(managerID, hotelID, roomNumber);
+   }
+
+   public List<RoomUpdate> recentOfManager(int managerID, int limit) throws SQLException {
+      List<RoomUpdate> updates = new ArrayList<RoomUpdate>();
+      // detail first; the daily rollups, all older, only count when the detail runs short.
+      // Rollups have no updateNumber and report the last update of their day.
+      for (List<String> row : esql.executeQueryAndReturnResult(String.format(
+            "(SELECT updateNumber, managerID, hotelID, roomNumber, updatedOn FROM roomUpdatesLog " +
+            "WHERE managerID = '%d' ORDER BY updatedOn DESC LIMIT %d) UNION ALL " +
+            "(SELECT 0, managerID, hotelID, roomNumber, lastUpdate FROM RoomUpdatesDaily " +
+            "WHERE managerID = '%d' ORDER BY lastUpdate DESC LIMIT %d) ORDER BY 5 DESC LIMIT %d",
+            managerID, limit, managerID, limit, limit)))
+         updates.add(new RoomUpdate(Integer.parseInt(row.get(0)), Integer.parseInt(row.get(1)),
+                                    Integer.parseInt(row.get(2)), Integer.parseInt(row.get(3)),
+                                    Timestamp.valueOf(row.get(4))));
+      return updates;
+   }
+
+   // -------------------------------------------------------------- repairs
+
+   public int request(int managerID, int hotelID, int roomNumber, int companyID) throws SQLException {
+      List<List<String>> result = esql.executeQueryAndReturnResult(
+         repairRequestQuery(managerID, hotelID, roomNumber, companyID) + " RETURNING repairID");
+      return result.isEmpty() ? -1 : Integer.parseInt(result.get(0).get(0));
+   }
+
+   public int requestAll(int managerID, int hotelID, int[] roomNumbers, int companyID) throws SQLException {
+      List<String> batch = new ArrayList<String>();
+      for (int roomNumber : roomNumbers)
+         batch.add(repairRequestQuery(managerID, hotelID, roomNumber, companyID));
+      int placed = 0;
+      for (int count : esql.executeUpdateBatch(batch))
+         placed += count;
+      return placed;
+   }
+
+   // Builds the statement inserting one repair and its request for an existing room of a managed hotel;
+   // it inserts nothing, rather than failing a foreign key, for an unknown room or company.
+   static String repairRequestQuery(int managerID, int hotelID, int roomNumber, int companyID) {
+      return String.format(
+         "WITH repair AS (INSERT INTO roomRepairs (companyID,hotelID,roomNumber,repairDate) " +
+         "SELECT c.companyID, r.hotelID, r.roomNumber, CURRENT_DATE FROM hotel h " +
+         "JOIN Rooms r ON r.hotelID = h.hotelID AND r.roomNumber = '%d' " +
+         "JOIN MaintenanceCompany c ON c.companyID = '%d' " +
+         "WHERE h.hotelID = '%d' AND h.managerUserID = '%d' RETURNING repairID) " +
+         "INSERT INTO roomRepairRequests (managerID,repairID) SELECT '%d', repairID FROM repair",
+         roomNumber, companyID, hotelID, managerID, managerID);
+   }
+
+   public List<Repair> ofManager(int managerID) throws SQLException {
+      List<Repair> repairs = new ArrayList<Repair>();
+      for (List<String> row : esql.executeQueryAndReturnResult(String.format(
+            "SELECT repairID, companyID, hotelID, roomNumber, repairDate FROM roomRepairs " +
+            "WHERE hotelID IN (SELECT hotelID FROM hotel WHERE managerUserID = '%d') ORDER BY repairDate DESC, repairID DESC", managerID)))
+         repairs.add(new Repair(Integer.parseInt(row.get(0)), Integer.parseInt(row.get(1)),
+                                Integer.parseInt(row.get(2)), Integer.parseInt(row.get(3)),
+                                LocalDate.parse(row.get(4))));
+      return repairs;
+   }
+
+   // char(n) columns come back padded.
+   private static String trim(String value) {
+      return value == null ? null : value.trim();
+   }
+
+}//end PostgresStore
@@ -0,0 +1,134 @@
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This class picks the connection a statement runs on when a read replica
+ * is configured. Writes always go to the primary. Reads of read-only menu
+ * operations go to the replica when it has replayed this session's last
+ * write and is no more than maxLagMillis behind; otherwise to the primary.
+ *
+ * A second instance that is not in recovery has no replay position to
+ * compare with the primary's, so it is never known to be current and every
+ * read stays on the primary, unless the router is standalone. A standalone
+ * replica, e.g. a plain local Postgres loaded with the same data for tests
+ * (-Dhotel.replica.standalone=true), never receives the primary's writes;
+ * it serves reads except for maxLagMillis after each write of the session,
+ * when reads stay on the primary so the session sees its own writes.
+ */
+public class ReplicaRouter {
+
+   // how long a replica lag reading is trusted before asking again.
+   static final long LAG_CHECK_MILLIS = 1000;
+
+   private final Connection _primary;
+   private final Connection _replica;
+   private final long _maxLagMillis;
+   private final boolean _standalone;
+
+   // primary WAL position after this session's last write, or null.
+   private String _writeLsn = null;
+   // a write happened since _writeLsn was taken.
+   private boolean _unsyncedWrite = false;
+   private boolean _replicaUsable = false;
+   private long _checkedAt = 0;
+   // time of this session's last write, for a standalone replica.
+   private long _wroteAt = 0;
+
+   public ReplicaRouter(Connection primary, Connection replica, long maxLagMillis) {
+      this(primary, replica, maxLagMillis, false);
+   }
+
+   /**
+    * @param standalone whether the replica is a separate instance that is
+    * not a standby of the primary
+    */
+   public ReplicaRouter(Connection primary, Connection replica, long maxLagMillis, boolean standalone) {
+      this._primary = primary;
+      this._replica = replica;
+      this._maxLagMillis = maxLagMillis;
+      this._standalone = standalone;
+   }
+
+   public Connection primary() {
+      return _primary;
+   }
+
+   public Connection replica() {
+      return _replica;
+   }
+
+   /**
+    * Notes that the session has written to the primary, so the replica is
+    * only used again once it has caught up with that write.
+    */
+   public synchronized void wrote() {
+      _unsyncedWrite = true;
+      _replicaUsable = false;
+      _wroteAt = System.currentTimeMillis();
+   }
+
+   /**
+    * @return the replica when it can serve this session's reads, otherwise
+    * the primary
+    */
+   public synchronized Connection forRead() {
+      long now = System.currentTimeMillis();
+      if (_standalone)
+         return now - _wroteAt >= _maxLagMillis ? _replica : _primary;
+      if (_unsyncedWrite || now - _checkedAt > LAG_CHECK_MILLIS) {
+         try {
+            if (_unsyncedWrite) {
+               _writeLsn = queryString(_primary, "SELECT pg_current_wal_lsn()::text");
+               _unsyncedWrite = false;
+            }
+            _replicaUsable = replicaCurrent();
+         } catch (SQLException e) {
+            System.err.println("Replica not used: " + e.getMessage());
+            _replicaUsable = false;
+         }
+         _checkedAt = now;
+      }
+      return _replicaUsable ? _replica : _primary;
+   }//end forRead
+
+   // true when the replica is in recovery, has replayed _writeLsn and lags less than the limit.
+   private boolean replicaCurrent() throws SQLException {
+      Statement stmt = _replica.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(String.format(
+            "SELECT pg_is_in_recovery(), " +
+            "%s, " +
+            "CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE extract(epoch FROM now() - pg_last_xact_replay_timestamp()) * 1000 END",
+            _writeLsn == null ? "true" : "pg_last_wal_replay_lsn() >= '" + _writeLsn + "'::pg_lsn"));
+         rs.next();
+         // not a standby: whether it has this session's writes cannot be told.
+         if (!rs.getBoolean(1))
+            return false;
+         return rs.getBoolean(2) && rs.getDouble(3) <= _maxLagMillis;
+      } finally {
+         stmt.close();
+      }
+   }
+
+   private static String queryString(Connection connection, String query) throws SQLException {
+      Statement stmt = connection.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(query);
+         return rs.next() ? rs.getString(1) : null;
+      } finally {
+         stmt.close();
+      }
+   }
+
+   public void close() {
+      try {
+         _replica.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }
+
+}//end ReplicaRouter
@@ -0,0 +1,207 @@
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class writes RoomUpdatesLog records behind the caller's back. Records
+ * are put on a bounded lock-free queue and a background thread inserts them
+ * in JDBC batches on its own connection.
+ *
+ * In FIRE_AND_FORGET mode log() returns as soon as the record is queued. In
+ * FLUSH_ON_COMMIT mode log() returns once the record has been committed,
+ * and throws if it could not be. When the queue is full log() waits for
+ * the writer to make room. Records logged after close() are rejected;
+ * those queued before it are all written first.
+ */
+public class RoomUpdatesAuditWriter implements Runnable {
+
+   public enum Durability { FIRE_AND_FORGET, FLUSH_ON_COMMIT }
+
+   // one pending RoomUpdatesLog row.
+   static class Record {
+      final int managerID;
+      final int hotelID;
+      final int roomNumber;
+      final Timestamp updatedOn;
+      volatile boolean written = false;
+      // why the record was dropped, or null when it was committed.
+      volatile String failure = null;
+
+      Record(int managerID, int hotelID, int roomNumber, Timestamp updatedOn) {
+         this.managerID = managerID;
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+         this.updatedOn = updatedOn;
+      }
+   }//end Record
+
+   // longest the writer sleeps before looking at the queue again.
+   static final long FLUSH_INTERVAL_NANOS = 50L * 1000 * 1000;
+
+   private final Connection _connection;
+   private final Durability _durability;
+   private final int _capacity;
+   private final int _batchSize;
+
+   private final ConcurrentLinkedQueue<Record> _queue = new ConcurrentLinkedQueue<Record>();
+   private final AtomicInteger _size = new AtomicInteger();
+   private volatile boolean _closed = false;
+   // log() calls between their _closed check and queuing the record; close() waits for them.
+   private final AtomicInteger _logging = new AtomicInteger();
+   // set once nothing more can be queued, so the writer stops at an empty queue.
+   private volatile boolean _stopping = false;
+   private final Object _flushed = new Object();
+   private final Thread _thread;
+
+   /**
+    * Creates the writer and starts its background thread.
+    *
+    * @param connection connection owned by the writer from now on
+    * @param durability when log() returns
+    * @param capacity most records waiting in the queue
+    * @param batchSize most records inserted per batch
+    */
+   public RoomUpdatesAuditWriter(Connection connection, Durability durability, int capacity, int batchSize) {
+      this._connection = connection;
+      this._durability = durability;
+      this._capacity = capacity;
+      this._batchSize = batchSize;
+      this._thread = new Thread(this, "RoomUpdatesLog writer");
+      this._thread.setDaemon(true);
+      this._thread.start();
+   }
+
+   /**
+    * Queues one RoomUpdatesLog row stamped with the current time.
+    *
+    * @throws java.lang.IllegalStateException when the writer is closed
+    * @throws java.sql.SQLException in FLUSH_ON_COMMIT mode, when the row was not written
+    */
+   public void log(int managerID, int hotelID, int roomNumber) throws SQLException {
+      Record record = new Record(managerID, hotelID, roomNumber, new Timestamp(System.currentTimeMillis()));
+      _logging.incrementAndGet();
+      try {
+         if (_closed)
+            throw new IllegalStateException("RoomUpdatesLog writer is closed");
+         // backpressure: reserve a slot, or wait for the writer to free one.
+         while (_size.incrementAndGet() > _capacity) {
+            _size.decrementAndGet();
+            LockSupport.unpark(_thread);
+            LockSupport.parkNanos(FLUSH_INTERVAL_NANOS / 10);
+         }
+         _queue.offer(record);
+      } finally {
+         _logging.decrementAndGet();
+      }
+      if (_durability == Durability.FLUSH_ON_COMMIT) {
+         LockSupport.unpark(_thread);
+         awaitWritten(record);
+         if (record.failure != null)
+            throw new SQLException("RoomUpdatesLog record not written: " + record.failure);
+      } else if (_size.get() >= _batchSize) {
+         LockSupport.unpark(_thread);
+      }
+   }//end log
+
+   // blocks until the writer has handled the record.
+   private void awaitWritten(Record record) throws SQLException {
+      synchronized (_flushed) {
+         while (!record.written) {
+            try {
+               _flushed.wait();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new SQLException("Interrupted while waiting for the RoomUpdatesLog record");
+            }
+         }
+      }
+   }
+
+   /**
+    * Stops accepting records, writes everything still queued and closes the
+    * writer's connection.
+    */
+   public void close() {
+      _closed = true;
+      // a log() that got past the _closed check still queues its record; wait for it.
+      while (_logging.get() > 0)
+         Thread.yield();
+      _stopping = true;
+      LockSupport.unpark(_thread);
+      try {
+         _thread.join();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      try {
+         _connection.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }//end close
+
+   public void run() {
+      while (true) {
+         boolean stopping = _stopping;
+         if (_queue.peek() == null) {
+            if (stopping)
+               break;
+            LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+            continue;
+         }
+         flush();
+      }//end while
+   }//end run
+
+   // writes up to one batch of queued records.
+   private void flush() {
+      Record[] batch = new Record[_batchSize];
+      int count = 0;
+      Record record;
+      while (count < _batchSize && (record = _queue.poll()) != null)
+         batch[count++] = record;
+      _size.addAndGet(-count);
+
+      try {
+         write(batch, 0, count);
+      } catch (SQLException e) {
+         // one bad row must not lose the others: retry them one at a time.
+         for (int i = 0; i < count; i++) {
+            try {
+               write(batch, i, i + 1);
+            } catch (SQLException rowError) {
+               batch[i].failure = rowError.getMessage();
+               System.err.println("RoomUpdatesLog record dropped: " + rowError.getMessage());
+            }
+         }
+      }
+      synchronized (_flushed) {
+         for (int i = 0; i < count; i++)
+            batch[i].written = true;
+         _flushed.notifyAll();
+      }
+   }//end flush
+
+   private void write(Record[] batch, int from, int to) throws SQLException {
+      _connection.setAutoCommit(false);
+      Statement stmt = _connection.createStatement();
+      try {
+         for (int i = from; i < to; i++)
+            stmt.addBatch(String.format(
+               "INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) VALUES ('%d', '%d', '%d', '%s')",
+               batch[i].managerID, batch[i].hotelID, batch[i].roomNumber, batch[i].updatedOn));
+         stmt.executeBatch();
+         _connection.commit();
+      } catch (SQLException e) {
+         _connection.rollback();
+         throw e;
+      } finally {
+         stmt.close();
+      }
+   }//end write
+
+}//end RoomUpdatesAuditWriter
@@ -0,0 +1,95 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps RoomUpdatesLog to the last keepDays days. A background
+ * thread runs every intervalMinutes and compacts older rows into the
+ * RoomUpdatesDaily rollups with compact_room_updates(), batchSize rows per
+ * transaction, so the log never holds long locks and stays small enough
+ * for the latest updates of a manager to be an index lookup.
+ */
+public class RoomUpdatesRetention {
+
+   private final Connection _connection;
+   private final int _keepDays;
+   private final int _batchSize;
+   private final ScheduledExecutorService _scheduler;
+
+   /**
+    * Creates the job and schedules its first run right away.
+    *
+    * @param connection connection owned by the job from now on
+    * @param keepDays days of updates kept in full detail
+    * @param batchSize most rows compacted per transaction
+    * @param intervalMinutes minutes between runs
+    */
+   public RoomUpdatesRetention(Connection connection, int keepDays, int batchSize, long intervalMinutes) {
+      this._connection = connection;
+      this._keepDays = keepDays;
+      this._batchSize = batchSize;
+      this._scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "RoomUpdatesLog retention");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      this._scheduler.scheduleWithFixedDelay(new Runnable() {
+         public void run() {
+            try {
+               compact();
+            } catch (SQLException e) {
+               System.err.println("RoomUpdatesLog not compacted: " + e.getMessage());
+            }
+         }
+      }, 0, intervalMinutes, TimeUnit.MINUTES);
+   }
+
+   /**
+    * Compacts every row older than the window.
+    *
+    * @return the number of rows compacted
+    */
+   public int compact() throws SQLException {
+      int total = 0;
+      Statement stmt = _connection.createStatement();
+      try {
+         while (!_scheduler.isShutdown()) {
+            ResultSet rs = stmt.executeQuery(String.format(
+               "SELECT compact_room_updates(%d, %d)", _keepDays, _batchSize));
+            rs.next();
+            int moved = rs.getInt(1);
+            total += moved;
+            if (moved < _batchSize)
+               break;
+         }
+      } finally {
+         stmt.close();
+      }
+      return total;
+   }//end compact
+
+   /**
+    * Stops the job, letting a running batch finish, and closes its connection.
+    */
+   public void close() {
+      _scheduler.shutdown();
+      try {
+         _scheduler.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      try {
+         _connection.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }//end close
+
+}//end RoomUpdatesRetention
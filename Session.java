@@ -0,0 +1,44 @@
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class is an authenticated user of SessionStore: who they are and
+ * which hotels they manage, as found at login, so the menu operations need
+ * neither parse nor check the user again.
+ */
+public class Session {
+
+   public final String token;
+   public final int userID;
+   public final String name;
+   public final String userType;
+   // the hotels the user manages, by hotelID.
+   public final Set<Integer> managedHotels;
+
+   // when the session expires unless used before; moved forward on every use.
+   volatile long expiresAt;
+
+   Session(String token, HotelStore.User user, List<Integer> managedHotels, long expiresAt) {
+      this.token = token;
+      this.userID = user.userID;
+      this.name = user.name;
+      this.userType = user.userType;
+      this.managedHotels = Collections.unmodifiableSet(new HashSet<Integer>(managedHotels));
+      this.expiresAt = expiresAt;
+   }
+
+   public boolean isManager() {
+      return !managedHotels.isEmpty();
+   }
+
+   public boolean manages(int hotelID) {
+      return managedHotels.contains(hotelID);
+   }
+
+   public boolean isAdmin() {
+      return "admin".equals(userType);
+   }
+
+}//end Session
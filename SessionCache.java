@@ -0,0 +1,290 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+/**
+ * This class is the store of one logged-in user. Right after login it
+ * starts reading the user's working set in the background: the recent
+ * bookings of a customer; the recent updates and repairs of a manager,
+ * whose hotels the session already knows. The menu operations asking for
+ * that data get it from the cache, waiting for the read if it is still
+ * running. The background reads go through a Prefetch, which keeps them
+ * off whatever the menu operations are using, such as their connection;
+ * without one, each entry is read on first use instead.
+ *
+ * An entry is dropped when this session writes something it covers, and
+ * is read again after TTL_MILLIS so changes made by others show up.
+ * Everything else goes straight to the store underneath.
+ */
+public class SessionCache implements HotelStore,
+      HotelStore.UserRepository, HotelStore.HotelRepository, HotelStore.RoomRepository,
+      HotelStore.BookingRepository, HotelStore.UpdateRepository, HotelStore.RepairRepository {
+
+   // how long a cached entry is used before it is read again.
+   static final long TTL_MILLIS = 60 * 1000;
+
+   // threads of the background reads, shared by every session.
+   private static final ExecutorService PREFETCH = Executors.newCachedThreadPool(new ThreadFactory() {
+      public Thread newThread(Runnable task) {
+         Thread thread = new Thread(task, "session-prefetch");
+         thread.setDaemon(true);
+         return thread;
+      }
+   });
+
+   private interface Read<T> {
+      T run() throws SQLException;
+   }
+
+   /**
+    * A read of the working set, on the store the Prefetch gives it.
+    */
+   public interface StoreRead<T> {
+      T run(HotelStore store) throws SQLException;
+   }
+
+   /**
+    * Runs the background reads of a session apart from its menu operations.
+    */
+   public interface Prefetch {
+      <T> CompletableFuture<T> read(StoreRead<T> read);
+   }
+
+   /**
+    * @return a Prefetch running the reads on the store itself, on
+    * background threads; only for stores many threads may use at once
+    */
+   public static Prefetch onThreads(final HotelStore store) {
+      return new Prefetch() {
+         public <T> CompletableFuture<T> read(final StoreRead<T> read) {
+            return CompletableFuture.supplyAsync(new Supplier<T>() {
+               public T get() {
+                  try {
+                     return read.run(store);
+                  } catch (SQLException e) {
+                     throw new CompletionException(e);
+                  }
+               }
+            }, PREFETCH);
+         }
+      };
+   }
+
+   private static class Entry {
+      final CompletableFuture<Object> value;
+      final long loadedAt = System.currentTimeMillis();
+
+      Entry(CompletableFuture<Object> value) {
+         this.value = value;
+      }
+   }
+
+   private final HotelStore _store;
+   private final Prefetch _prefetch;
+   private final int _userID;
+   private final int _recentRows;
+   private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+
+   /**
+    * Creates the cache and starts reading the working set of the user.
+    *
+    * @param store the store underneath
+    * @param prefetch runs the background reads; null reads on first use
+    * @param session the session of the logged-in user
+    * @param recentRows how many recent bookings or updates the menu shows
+    */
+   public SessionCache(HotelStore store, Prefetch prefetch, Session session, int recentRows) {
+      this._store = store;
+      this._prefetch = prefetch;
+      this._userID = session.userID;
+      this._recentRows = recentRows;
+      prefetch("bookings.recent." + recentRows, new StoreRead<Object>() {
+         public Object run(HotelStore store) throws SQLException {
+            return store.bookings().recentOfCustomer(_userID, _recentRows);
+         }
+      });
+      // the managed hotels were read at login.
+      List<Integer> managed = new ArrayList<Integer>(session.managedHotels);
+      Collections.sort(managed);
+      _entries.put("hotels.managed", new Entry(CompletableFuture.<Object>completedFuture(managed)));
+      if (!session.isManager())
+         return;
+      prefetch("updates.recent." + recentRows, new StoreRead<Object>() {
+         public Object run(HotelStore store) throws SQLException {
+            return store.updates().recentOfManager(_userID, _recentRows);
+         }
+      });
+      prefetch("repairs.managed", new StoreRead<Object>() {
+         public Object run(HotelStore store) throws SQLException {
+            return store.repairs().ofManager(_userID);
+         }
+      });
+   }
+
+   public UserRepository users() { return this; }
+   public HotelRepository hotels() { return this; }
+   public RoomRepository rooms() { return this; }
+   public BookingRepository bookings() { return this; }
+   public UpdateRepository updates() { return this; }
+   public RepairRepository repairs() { return this; }
+
+   // only drops the cache; the store underneath outlives the session.
+   public void close() {
+      _entries.clear();
+   }
+
+   // ---------------------------------------------------------------- cache
+
+   private void prefetch(String key, StoreRead<Object> read) {
+      if (_prefetch != null)
+         _entries.put(key, new Entry(_prefetch.read(read)));
+   }
+
+   // the cached value of key, or the result of read, cached from now on.
+   @SuppressWarnings("unchecked")
+   private <T> T cached(String key, Read<T> read) throws SQLException {
+      Entry entry = _entries.get(key);
+      if (entry != null && System.currentTimeMillis() - entry.loadedAt < TTL_MILLIS) {
+         try {
+            return (T) entry.value.join();
+         } catch (CompletionException e) {
+            // the background read failed; read again below.
+            _entries.remove(key, entry);
+         }
+      }
+      T value = read.run();
+      _entries.put(key, new Entry(CompletableFuture.<Object>completedFuture(value)));
+      return value;
+   }
+
+   private void invalidate(String prefix) {
+      for (Iterator<String> keys = _entries.keySet().iterator(); keys.hasNext(); )
+         if (keys.next().startsWith(prefix))
+            keys.remove();
+   }
+
+   // ---------------------------------------------------------------- users
+
+   public int create(String name, String password, String userType) throws SQLException {
+      return _store.users().create(name, password, userType);
+   }
+
+   public User logIn(int userID, String password) throws SQLException {
+      return _store.users().logIn(userID, password);
+   }
+
+   // --------------------------------------------------------------- hotels
+
+   public List<HotelInfo> near(double latitude, double longitude, double distance) throws SQLException {
+      return _store.hotels().near(latitude, longitude, distance);
+   }
+
+   public boolean isManagedBy(int hotelID, int managerID) throws SQLException {
+      if (managerID == _userID)
+         return managedBy(managerID).contains(hotelID);
+      return _store.hotels().isManagedBy(hotelID, managerID);
+   }
+
+   public List<Integer> managedBy(final int managerID) throws SQLException {
+      Read<List<Integer>> read = new Read<List<Integer>>() {
+         public List<Integer> run() throws SQLException {
+            return _store.hotels().managedBy(managerID);
+         }
+      };
+      return managerID == _userID ? cached("hotels.managed", read) : read.run();
+   }
+
+   // ---------------------------------------------------------------- rooms
+
+   public Room find(int hotelID, int roomNumber) throws SQLException {
+      return _store.rooms().find(hotelID, roomNumber);
+   }
+
+   public Room update(Room room, int price, String imageURL) throws SQLException {
+      return _store.rooms().update(room, price, imageURL);
+   }
+
+   // ------------------------------------------------------------- bookings
+
+   public List<Room> available(int hotelID, LocalDate date) throws SQLException {
+      return _store.bookings().available(hotelID, date);
+   }
+
+   public Room book(int customerID, int hotelID, int roomNumber, LocalDate date) throws SQLException {
+      Room room = _store.bookings().book(customerID, hotelID, roomNumber, date);
+      if (customerID == _userID)
+         invalidate("bookings.");
+      return room;
+   }
+
+   public List<Booking> recentOfCustomer(final int customerID, final int limit) throws SQLException {
+      Read<List<Booking>> read = new Read<List<Booking>>() {
+         public List<Booking> run() throws SQLException {
+            return _store.bookings().recentOfCustomer(customerID, limit);
+         }
+      };
+      return customerID == _userID ? cached("bookings.recent." + limit, read) : read.run();
+   }
+
+   public List<Booking> ofHotel(int hotelID, LocalDate from, LocalDate to) throws SQLException {
+      return _store.bookings().ofHotel(hotelID, from, to);
+   }
+
+   public List<int[]> topCustomers(int hotelID, int limit) throws SQLException {
+      return _store.bookings().topCustomers(hotelID, limit);
+   }
+
+   // -------------------------------------------------------------- updates
+
+   public void log(int managerID, int hotelID, int roomNumber) throws SQLException {
+      _store.updates().log(managerID, hotelID, roomNumber);
+      if (managerID == _userID)
+         invalidate("updates.");
+   }
+
+   public List<RoomUpdate> recentOfManager(final int managerID, final int limit) throws SQLException {
+      Read<List<RoomUpdate>> read = new Read<List<RoomUpdate>>() {
+         public List<RoomUpdate> run() throws SQLException {
+            return _store.updates().recentOfManager(managerID, limit);
+         }
+      };
+      return managerID == _userID ? cached("updates.recent." + limit, read) : read.run();
+   }
+
+   // -------------------------------------------------------------- repairs
+
+   public int request(int managerID, int hotelID, int roomNumber, int companyID) throws SQLException {
+      int repairID = _store.repairs().request(managerID, hotelID, roomNumber, companyID);
+      if (managerID == _userID)
+         invalidate("repairs.");
+      return repairID;
+   }
+
+   public int requestAll(int managerID, int hotelID, int[] roomNumbers, int companyID) throws SQLException {
+      int placed = _store.repairs().requestAll(managerID, hotelID, roomNumbers, companyID);
+      if (managerID == _userID)
+         invalidate("repairs.");
+      return placed;
+   }
+
+   public List<Repair> ofManager(final int managerID) throws SQLException {
+      Read<List<Repair>> read = new Read<List<Repair>>() {
+         public List<Repair> run() throws SQLException {
+            return _store.repairs().ofManager(managerID);
+         }
+      };
+      return managerID == _userID ? cached("repairs.managed", read) : read.run();
+   }
+
+}//end SessionCache
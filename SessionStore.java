@@ -0,0 +1,82 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class holds the sessions of logged-in users in memory, keyed by an
+ * opaque random token. A session expires ttlMillis after it was last used;
+ * every successful lookup moves the expiry forward. Lookups are a single
+ * concurrent map read, so many clients can check their session cheaply.
+ *
+ * Expired sessions are dropped when looked up, and all of them at once
+ * every SWEEP_EVERY sessions opened.
+ */
+public class SessionStore {
+
+   static final int TOKEN_BYTES = 32;
+   static final int SWEEP_EVERY = 1024;
+
+   private final long _ttlMillis;
+   private final ConcurrentMap<String, Session> _sessions = new ConcurrentHashMap<String, Session>();
+   private final SecureRandom _random = new SecureRandom();
+   private int _opened = 0;
+
+   public SessionStore(long ttlMillis) {
+      this._ttlMillis = ttlMillis;
+   }
+
+   /**
+    * Opens a session for a user whose credentials were just verified.
+    *
+    * @param user the user
+    * @param managedHotels the hotels the user manages
+    * @return the new session
+    */
+   public Session open(HotelStore.User user, List<Integer> managedHotels) {
+      byte[] bytes = new byte[TOKEN_BYTES];
+      _random.nextBytes(bytes);
+      String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+      Session session = new Session(token, user, managedHotels, System.currentTimeMillis() + _ttlMillis);
+      _sessions.put(token, session);
+      synchronized (this) {
+         if (++_opened % SWEEP_EVERY == 0)
+            sweep();
+      }
+      return session;
+   }
+
+   /**
+    * @return the session of the token, or null when it is unknown or expired
+    */
+   public Session get(String token) {
+      if (token == null)
+         return null;
+      Session session = _sessions.get(token);
+      if (session == null)
+         return null;
+      long now = System.currentTimeMillis();
+      if (session.expiresAt <= now) {
+         _sessions.remove(token, session);
+         return null;
+      }
+      session.expiresAt = now + _ttlMillis;
+      return session;
+   }
+
+   public void close(String token) {
+      if (token != null)
+         _sessions.remove(token);
+   }
+
+   // drops every expired session.
+   private void sweep() {
+      long now = System.currentTimeMillis();
+      for (Iterator<Session> sessions = _sessions.values().iterator(); sessions.hasNext(); )
+         if (sessions.next().expiresAt <= now)
+            sessions.remove();
+   }
+
+}//end SessionStore
@@ -0,0 +1,311 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class sets up and rebalances the shards of ShardedStore:
+ *
+ *   java ShardTool <user> <dbname:port>,<dbname:port>,... init
+ *   java ShardTool <user> <dbname:port>,<dbname:port>,... status
+ *   java ShardTool <user> <dbname:port>,<dbname:port>,... move <bucket> <shard>
+ *   java ShardTool <user> <dbname:port>,<dbname:port>,... rebalance
+ *
+ * The shards are listed in order, shard 0 first. To start, create the
+ * tables on every shard and load the same data into each, then run init:
+ * it fills ShardMap, interleaves the serial columns of the shards and
+ * deletes from each shard the hotels it does not hold. To add a shard,
+ * prepare it the same way with only Users and MaintenanceCompany loaded,
+ * list it last and run rebalance.
+ *
+ * A move runs while the application is up. The bucket is first marked as
+ * moving, so clients stop writing to its hotels once they have reread the
+ * map; its rows are then copied to the target in one transaction, the map
+ * is switched, and once every client has seen the switch the rows are
+ * deleted from the source.
+ */
+public class ShardTool {
+
+   // how long until every client has reread ShardMap, replica lag included.
+   static final long MAP_PROPAGATION_MILLIS = ShardedStore.MAP_REFRESH_MILLIS + Hotel.REPLICA_MAX_LAG_MILLIS;
+
+   // tables holding rows of a hotel, in foreign key order, with the filter selecting them.
+   static final String[][] HOTEL_TABLES = {
+      { "Hotel", "hotelID IN (%s)" },
+      { "Rooms", "hotelID IN (%s)" },
+      { "RoomBookings", "hotelID IN (%s)" },
+      { "RoomRepairs", "hotelID IN (%s)" },
+      { "RoomRepairRequests", "repairID IN (SELECT repairID FROM RoomRepairs WHERE hotelID IN (%s))" },
+      { "RoomUpdatesLog", "hotelID IN (%s)" },
+      { "RoomUpdatesDaily", "hotelID IN (%s)" },
+   };
+   // columns local to a database, left to their default on the target: txids of shards differ.
+   static final Set<String> LOCAL_COLUMNS = new HashSet<String>(Arrays.asList("inserttxid"));
+   // aggregates of RoomRepairs; rebuilt by its trigger on the target, deleted on the source.
+   static final String[] HOTEL_STATS_TABLES = { "RoomRepairStats", "CompanyRepairStats", "MonthlyRepairStats" };
+
+   private final List<Hotel> _shards;
+
+   public ShardTool(List<Hotel> shards) {
+      this._shards = shards;
+   }
+
+   /**
+    * Fills ShardMap with the default placement, sets up the serial columns
+    * of each shard and deletes from each shard the hotels it does not hold.
+    */
+   public void init() throws SQLException {
+      Hotel directory = _shards.get(0);
+      for (int b = 0; b < ShardedStore.BUCKETS; b++)
+         directory.executeUpdate(String.format(
+            "INSERT INTO ShardMap (bucket, shard) VALUES ('%d', '%d') ON CONFLICT (bucket) DO NOTHING",
+            b, b % _shards.size()));
+      int[] bucketShard = ShardedStore.readMap(directory, _shards.size())[0];
+      for (int i = 0; i < _shards.size(); i++) {
+         Hotel shard = _shards.get(i);
+         shard.executeQuery(String.format("SELECT configure_shard('%d', '%d')", i, ShardedStore.MAX_SHARDS));
+         List<Integer> foreign = new ArrayList<Integer>();
+         for (int hotelID : hotelsOf(shard))
+            if (bucketShard[ShardedStore.bucket(hotelID)] != i)
+               foreign.add(hotelID);
+         if (!foreign.isEmpty()) {
+            Connection connection = shard.openConnection();
+            try {
+               deleteHotels(connection, join(foreign));
+            } finally {
+               connection.close();
+            }
+         }
+         System.out.println(String.format("shard %d: %d hotels removed", i, foreign.size()));
+      }
+   }//end init
+
+   public void status() throws SQLException {
+      int[][] map = ShardedStore.readMap(_shards.get(0), _shards.size());
+      for (int i = 0; i < _shards.size(); i++) {
+         int buckets = 0;
+         for (int b = 0; b < ShardedStore.BUCKETS; b++)
+            if (map[0][b] == i)
+               buckets++;
+         System.out.println(String.format("shard %d: %d buckets, %d hotels", i, buckets, hotelsOf(_shards.get(i)).size()));
+      }
+      for (int b = 0; b < ShardedStore.BUCKETS; b++)
+         if (map[1][b] == 1)
+            System.out.println(String.format("bucket %d is being moved from shard %d", b, map[0][b]));
+   }//end status
+
+   /**
+    * Moves the hotels of the bucket to the target shard while clients run.
+    */
+   public void move(int bucket, int target) throws SQLException, InterruptedException {
+      Hotel directory = _shards.get(0);
+      int source = ShardedStore.readMap(directory, _shards.size())[0][bucket];
+      if (source == target)
+         return;
+      List<Integer> hotels = new ArrayList<Integer>();
+      Hotel from = _shards.get(source);
+      Hotel to = _shards.get(target);
+
+      directory.executeUpdate(String.format(
+         "INSERT INTO ShardMap (bucket, shard, moving) VALUES ('%d', '%d', true) " +
+         "ON CONFLICT (bucket) DO UPDATE SET moving = true", bucket, source));
+      Thread.sleep(MAP_PROPAGATION_MILLIS);
+
+      // no client writes the bucket from here on.
+      for (int hotelID : hotelsOf(from))
+         if (ShardedStore.bucket(hotelID) == bucket)
+            hotels.add(hotelID);
+      if (!hotels.isEmpty()) {
+         try {
+            copyHotels(from, to, join(hotels));
+         } catch (SQLException e) {
+            directory.executeUpdate(String.format("UPDATE ShardMap SET moving = false WHERE bucket = '%d'", bucket));
+            throw e;
+         }
+      }
+      directory.executeUpdate(String.format(
+         "UPDATE ShardMap SET shard = '%d', moving = false WHERE bucket = '%d'", target, bucket));
+      System.out.println(String.format("bucket %d: %d hotels moved from shard %d to shard %d",
+                                       bucket, hotels.size(), source, target));
+
+      // clients still on the old map read the source until they reread it.
+      if (!hotels.isEmpty()) {
+         Thread.sleep(MAP_PROPAGATION_MILLIS);
+         Connection connection = from.openConnection();
+         try {
+            deleteHotels(connection, join(hotels));
+         } finally {
+            connection.close();
+         }
+      }
+   }//end move
+
+   /**
+    * Moves buckets from the fullest to the emptiest shard until the bucket
+    * counts differ by at most one.
+    */
+   public void rebalance() throws SQLException, InterruptedException {
+      while (true) {
+         int[] bucketShard = ShardedStore.readMap(_shards.get(0), _shards.size())[0];
+         int[] counts = new int[_shards.size()];
+         for (int b = 0; b < ShardedStore.BUCKETS; b++)
+            counts[bucketShard[b]]++;
+         int fullest = 0, emptiest = 0;
+         for (int i = 1; i < counts.length; i++) {
+            if (counts[i] > counts[fullest])
+               fullest = i;
+            if (counts[i] < counts[emptiest])
+               emptiest = i;
+         }
+         if (counts[fullest] - counts[emptiest] <= 1)
+            return;
+         for (int b = ShardedStore.BUCKETS - 1; b >= 0; b--) {
+            if (bucketShard[b] == fullest) {
+               move(b, emptiest);
+               break;
+            }
+         }
+      }
+   }//end rebalance
+
+   private static List<Integer> hotelsOf(Hotel shard) throws SQLException {
+      List<Integer> hotels = new ArrayList<Integer>();
+      for (List<String> row : shard.executeQueryAndReturnResult("SELECT hotelID FROM Hotel"))
+         hotels.add(Integer.parseInt(row.get(0)));
+      return hotels;
+   }
+
+   private static String join(List<Integer> ids) {
+      StringBuilder list = new StringBuilder();
+      for (int id : ids) {
+         if (list.length() > 0)
+            list.append(',');
+         list.append(id);
+      }
+      return list.toString();
+   }
+
+   // copies every row of the hotels to the target in one transaction.
+   private static void copyHotels(Hotel from, Hotel to, String hotelIDs) throws SQLException {
+      Connection source = from.openConnection();
+      Connection target = to.openConnection();
+      try {
+         target.setAutoCommit(false);
+         for (String[] table : HOTEL_TABLES)
+            copyRows(source, target, table[0], String.format(table[1], hotelIDs));
+         target.commit();
+      } catch (SQLException e) {
+         target.rollback();
+         throw e;
+      } finally {
+         source.close();
+         target.close();
+      }
+   }//end copyHotels
+
+   private static void copyRows(Connection source, Connection target, String table, String filter) throws SQLException {
+      Statement stmt = source.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery("SELECT * FROM " + table + " WHERE " + filter);
+         ResultSetMetaData rsmd = rs.getMetaData();
+         int numCol = rsmd.getColumnCount();
+         List<Integer> copied = new ArrayList<Integer>();
+         StringBuilder columns = new StringBuilder();
+         StringBuilder values = new StringBuilder();
+         for (int i = 1; i <= numCol; i++) {
+            if (LOCAL_COLUMNS.contains(rsmd.getColumnName(i).toLowerCase()))
+               continue;
+            columns.append(copied.isEmpty() ? "" : ", ").append(rsmd.getColumnName(i));
+            values.append(copied.isEmpty() ? "?" : ", ?");
+            copied.add(i);
+         }
+         PreparedStatement insert = target.prepareStatement(
+            "INSERT INTO " + table + " (" + columns + ") VALUES (" + values + ")");
+         try {
+            while (rs.next()) {
+               for (int i = 0; i < copied.size(); i++)
+                  insert.setObject(i + 1, rs.getObject(copied.get(i)));
+               insert.addBatch();
+            }
+            insert.executeBatch();
+         } finally {
+            insert.close();
+         }
+      } finally {
+         stmt.close();
+      }
+   }//end copyRows
+
+   // deletes every row of the hotels in one transaction, referencing tables first.
+   private static void deleteHotels(Connection connection, String hotelIDs) throws SQLException {
+      connection.setAutoCommit(false);
+      Statement stmt = connection.createStatement();
+      try {
+         for (int t = HOTEL_TABLES.length - 1; t >= 0; t--) {
+            if (HOTEL_TABLES[t][0].equals("RoomRepairs"))
+               for (String stats : HOTEL_STATS_TABLES)
+                  stmt.executeUpdate(String.format("DELETE FROM %s WHERE hotelID IN (%s)", stats, hotelIDs));
+            stmt.executeUpdate(String.format("DELETE FROM %s WHERE %s", HOTEL_TABLES[t][0],
+                                             String.format(HOTEL_TABLES[t][1], hotelIDs)));
+         }
+         connection.commit();
+      } catch (SQLException e) {
+         connection.rollback();
+         throw e;
+      } finally {
+         stmt.close();
+      }
+   }//end deleteHotels
+
+   /**
+    * @param shards dbname:port of each shard, comma separated, shard 0 first
+    * @return the connection of each shard
+    */
+   static List<Hotel> connect(String shards, String user) throws SQLException {
+      List<Hotel> connections = new ArrayList<Hotel>();
+      for (String shard : shards.split(",")) {
+         String[] dbAndPort = shard.trim().split(":");
+         connections.add(new Hotel(dbAndPort[0], dbAndPort[1], user, ""));
+      }
+      return connections;
+   }
+
+   public static void main(String[] args) {
+      if (args.length < 3 || (args[2].equals("move") && args.length != 5)) {
+         System.err.println(
+            "Usage: java [-classpath <classpath>] " + ShardTool.class.getName() +
+            " <user> <dbname:port>,<dbname:port>,... init | status | move <bucket> <shard> | rebalance");
+         return;
+      }
+      List<Hotel> shards = null;
+      try {
+         Class.forName("org.postgresql.Driver").getDeclaredConstructor().newInstance();
+         shards = connect(args[1], args[0]);
+         ShardTool tool = new ShardTool(shards);
+         if (args[2].equals("init"))
+            tool.init();
+         else if (args[2].equals("status"))
+            tool.status();
+         else if (args[2].equals("move"))
+            tool.move(Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+         else if (args[2].equals("rebalance"))
+            tool.rebalance();
+         else
+            System.err.println("Unknown command " + args[2]);
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      } finally {
+         if (shards != null)
+            for (Hotel shard : shards)
+               shard.cleanup();
+      }
+   }//end main
+
+}//end ShardTool
@@ -0,0 +1,342 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class implements HotelStore over several databases with the same
+ * schema. Every hotel lives on one shard together with its rooms, bookings,
+ * updates and repairs: hotelID hashes to one of BUCKETS buckets, and the
+ * ShardMap table of shard 0 says which shard holds each bucket. Users and
+ * maintenance companies are reference data present on every shard; new
+ * users get their userID on shard 0 and are copied to the others.
+ *
+ * Operations on one hotel go to its shard. Queries across hotels (nearby
+ * hotels, a customer's bookings, a manager's hotels, updates and repairs)
+ * run on every shard in parallel and the results are merged.
+ *
+ * ShardTool moves buckets between shards while the application runs. A
+ * bucket being moved is marked in ShardMap; its hotels stay readable but
+ * writes to them are refused until the move is over.
+ */
+public class ShardedStore implements HotelStore,
+      HotelStore.UserRepository, HotelStore.HotelRepository, HotelStore.RoomRepository,
+      HotelStore.BookingRepository, HotelStore.UpdateRepository, HotelStore.RepairRepository {
+
+   // number of hash buckets hotels are spread over; fixed for the life of the data.
+   static final int BUCKETS = 256;
+   // most shards a deployment can grow to; serial columns are interleaved by it.
+   static final int MAX_SHARDS = 64;
+   // how long the bucket map is trusted before reading ShardMap again.
+   static final long MAP_REFRESH_MILLIS = 5000;
+   // times a new user is copied to a shard before the shard is reported as failed.
+   static final int COPY_ATTEMPTS = 3;
+
+   private final List<Hotel> _shards;
+   private final List<PostgresStore> _stores = new ArrayList<PostgresStore>();
+   private final ExecutorService _executor;
+
+   private int[] _bucketShard = null;
+   private boolean[] _bucketMoving = null;
+   private long _mapReadAt = 0;
+
+   /**
+    * @param shards the connection of each shard, shard 0 first
+    */
+   public ShardedStore(List<Hotel> shards) {
+      this._shards = shards;
+      for (Hotel shard : shards)
+         _stores.add(new PostgresStore(shard));
+      this._executor = Executors.newFixedThreadPool(shards.size(), new ThreadFactory() {
+         public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "shard-query");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }
+
+   public UserRepository users() { return this; }
+   public HotelRepository hotels() { return this; }
+   public RoomRepository rooms() { return this; }
+   public BookingRepository bookings() { return this; }
+   public UpdateRepository updates() { return this; }
+   public RepairRepository repairs() { return this; }
+
+   public void close() {
+      _executor.shutdown();
+      for (PostgresStore store : _stores)
+         store.close();
+   }
+
+   // -------------------------------------------------------------- routing
+
+   /**
+    * @return the bucket of the hotel; the same on every client and in ShardTool
+    */
+   static int bucket(int hotelID) {
+      // spread consecutive hotelIDs over the buckets.
+      return ((hotelID * 0x9E3779B9) >>> 16) % BUCKETS;
+   }
+
+   /**
+    * Reads the bucket map: {shard of each bucket, 1 if the bucket is being
+    * moved}. Buckets missing from ShardMap default to bucket % shardCount.
+    */
+   static int[][] readMap(Hotel directory, int shardCount) throws SQLException {
+      int[] shard = new int[BUCKETS];
+      int[] moving = new int[BUCKETS];
+      for (int b = 0; b < BUCKETS; b++)
+         shard[b] = b % shardCount;
+      for (List<String> row : directory.executeQueryAndReturnResult("SELECT bucket, shard, moving FROM ShardMap")) {
+         int b = Integer.parseInt(row.get(0));
+         shard[b] = Integer.parseInt(row.get(1));
+         moving[b] = row.get(2).startsWith("t") ? 1 : 0;
+      }
+      return new int[][] { shard, moving };
+   }
+
+   private synchronized void refreshMap() throws SQLException {
+      long now = System.currentTimeMillis();
+      if (_bucketShard != null && now - _mapReadAt < MAP_REFRESH_MILLIS)
+         return;
+      int[][] map = readMap(_shards.get(0), _shards.size());
+      boolean[] moving = new boolean[BUCKETS];
+      for (int b = 0; b < BUCKETS; b++) {
+         if (map[0][b] >= _shards.size())
+            throw new SQLException(String.format("ShardMap puts bucket %d on shard %d, only %d shards configured",
+                                                 b, map[0][b], _shards.size()));
+         moving[b] = map[1][b] == 1;
+      }
+      _bucketShard = map[0];
+      _bucketMoving = moving;
+      _mapReadAt = now;
+   }
+
+   // store of the shard holding the hotel.
+   private synchronized PostgresStore forRead(int hotelID) throws SQLException {
+      refreshMap();
+      return _stores.get(_bucketShard[bucket(hotelID)]);
+   }
+
+   // store of the shard holding the hotel, unless the hotel is being moved.
+   private synchronized PostgresStore forWrite(int hotelID) throws SQLException {
+      refreshMap();
+      int b = bucket(hotelID);
+      if (_bucketMoving[b])
+         throw new SQLException(String.format(
+            "Hotel %d is being moved to another database, please try again shortly", hotelID));
+      return _stores.get(_bucketShard[b]);
+   }
+
+   private interface ShardQuery<T> {
+      List<T> run(PostgresStore store) throws SQLException;
+   }
+
+   // runs the query on every shard at once and concatenates the results.
+   private <T> List<T> scatter(final ShardQuery<T> query) throws SQLException {
+      List<Future<List<T>>> parts = new ArrayList<Future<List<T>>>();
+      for (final PostgresStore store : _stores)
+         parts.add(_executor.submit(new Callable<List<T>>() {
+            public List<T> call() throws SQLException {
+               return query.run(store);
+            }
+         }));
+      List<T> all = new ArrayList<T>();
+      try {
+         for (Future<List<T>> part : parts)
+            all.addAll(part.get());
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof SQLException)
+            throw (SQLException) e.getCause();
+         throw new SQLException(e.getCause());
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while querying the shards");
+      }
+      return all;
+   }//end scatter
+
+   private static <T> List<T> first(List<T> list, int limit) {
+      return list.size() <= limit ? list : new ArrayList<T>(list.subList(0, limit));
+   }
+
+   // ---------------------------------------------------------------- users
+
+   /**
+    * Creates the user on shard 0 and copies it to the other shards at once.
+    * A copy that fails is tried again, up to COPY_ATTEMPTS times; copying a
+    * user a shard already has changes nothing.
+    *
+    * @throws java.sql.SQLException naming the shards that still lack the
+    * user; it can log in, but not book on those shards
+    */
+   public int create(String name, String password, String userType) throws SQLException {
+      int userID = _stores.get(0).create(name, password, userType);
+      // users log in on shard 0 only; the copies need no credentials.
+      final String copy = String.format(
+         "INSERT INTO USERS (userID, name, password, userType) VALUES ('%d','%s','', '%s') " +
+         "ON CONFLICT (userID) DO NOTHING", userID, name, userType);
+      List<Integer> pending = new ArrayList<Integer>();
+      for (int i = 1; i < _shards.size(); i++)
+         pending.add(i);
+      Throwable failure = null;
+      for (int attempt = 0; attempt < COPY_ATTEMPTS && !pending.isEmpty(); attempt++) {
+         List<Future<Integer>> copies = new ArrayList<Future<Integer>>();
+         for (final int i : pending)
+            copies.add(_executor.submit(new Callable<Integer>() {
+               public Integer call() throws SQLException {
+                  _shards.get(i).executeUpdate(copy);
+                  return i;
+               }
+            }));
+         List<Integer> failed = new ArrayList<Integer>();
+         for (int k = 0; k < copies.size(); k++) {
+            try {
+               copies.get(k).get();
+            } catch (ExecutionException e) {
+               failed.add(pending.get(k));
+               failure = e.getCause();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new SQLException(String.format("Interrupted while copying user %d to the shards", userID));
+            }
+         }
+         pending = failed;
+      }
+      if (!pending.isEmpty())
+         throw new SQLException(String.format("User %d was created, but could not be copied to shards %s: %s",
+                                              userID, pending, failure.getMessage()), failure);
+      return userID;
+   }//end create
+
+   public User logIn(int userID, String password) throws SQLException {
+      return _stores.get(0).logIn(userID, password);
+   }
+
+   // --------------------------------------------------------------- hotels
+
+   public List<HotelInfo> near(final double latitude, final double longitude, final double distance) throws SQLException {
+      List<HotelInfo> hotels = scatter(new ShardQuery<HotelInfo>() {
+         public List<HotelInfo> run(PostgresStore store) throws SQLException {
+            return store.near(latitude, longitude, distance);
+         }
+      });
+      Collections.sort(hotels, new Comparator<HotelInfo>() {
+         public int compare(HotelInfo a, HotelInfo b) {
+            return Double.compare(MemoryStore.distance(latitude, longitude, a),
+                                  MemoryStore.distance(latitude, longitude, b));
+         }
+      });
+      return hotels;
+   }
+
+   public boolean isManagedBy(int hotelID, int managerID) throws SQLException {
+      return forRead(hotelID).isManagedBy(hotelID, managerID);
+   }
+
+   public List<Integer> managedBy(final int managerID) throws SQLException {
+      List<Integer> hotels = scatter(new ShardQuery<Integer>() {
+         public List<Integer> run(PostgresStore store) throws SQLException {
+            return store.managedBy(managerID);
+         }
+      });
+      Collections.sort(hotels);
+      return hotels;
+   }
+
+   // ---------------------------------------------------------------- rooms
+
+   public Room find(int hotelID, int roomNumber) throws SQLException {
+      return forRead(hotelID).find(hotelID, roomNumber);
+   }
+
+   public Room update(Room room, int price, String imageURL) throws SQLException {
+      return forWrite(room.hotelID).update(room, price, imageURL);
+   }
+
+   // ------------------------------------------------------------- bookings
+
+   public List<Room> available(int hotelID, LocalDate date) throws SQLException {
+      return forRead(hotelID).available(hotelID, date);
+   }
+
+   public Room book(int customerID, int hotelID, int roomNumber, LocalDate date) throws SQLException {
+      return forWrite(hotelID).book(customerID, hotelID, roomNumber, date);
+   }
+
+   public List<Booking> recentOfCustomer(final int customerID, final int limit) throws SQLException {
+      List<Booking> bookings = scatter(new ShardQuery<Booking>() {
+         public List<Booking> run(PostgresStore store) throws SQLException {
+            return store.recentOfCustomer(customerID, limit);
+         }
+      });
+      Collections.sort(bookings, new Comparator<Booking>() {
+         public int compare(Booking a, Booking b) {
+            return b.bookingDate.compareTo(a.bookingDate);
+         }
+      });
+      return first(bookings, limit);
+   }
+
+   public List<Booking> ofHotel(int hotelID, LocalDate from, LocalDate to) throws SQLException {
+      return forRead(hotelID).ofHotel(hotelID, from, to);
+   }
+
+   public List<int[]> topCustomers(int hotelID, int limit) throws SQLException {
+      return forRead(hotelID).topCustomers(hotelID, limit);
+   }
+
+   // -------------------------------------------------------------- updates
+
+   public void log(int managerID, int hotelID, int roomNumber) throws SQLException {
+      forWrite(hotelID).log(managerID, hotelID, roomNumber);
+   }
+
+   public List<RoomUpdate> recentOfManager(final int managerID, final int limit) throws SQLException {
+      List<RoomUpdate> updates = scatter(new ShardQuery<RoomUpdate>() {
+         public List<RoomUpdate> run(PostgresStore store) throws SQLException {
+            return store.recentOfManager(managerID, limit);
+         }
+      });
+      Collections.sort(updates, new Comparator<RoomUpdate>() {
+         public int compare(RoomUpdate a, RoomUpdate b) {
+            return b.updatedOn.compareTo(a.updatedOn);
+         }
+      });
+      return first(updates, limit);
+   }
+
+   // -------------------------------------------------------------- repairs
+
+   public int request(int managerID, int hotelID, int roomNumber, int companyID) throws SQLException {
+      return forWrite(hotelID).request(managerID, hotelID, roomNumber, companyID);
+   }
+
+   public int requestAll(int managerID, int hotelID, int[] roomNumbers, int companyID) throws SQLException {
+      return forWrite(hotelID).requestAll(managerID, hotelID, roomNumbers, companyID);
+   }
+
+   public List<Repair> ofManager(final int managerID) throws SQLException {
+      List<Repair> repairs = scatter(new ShardQuery<Repair>() {
+         public List<Repair> run(PostgresStore store) throws SQLException {
+            return store.ofManager(managerID);
+         }
+      });
+      Collections.sort(repairs, new Comparator<Repair>() {
+         public int compare(Repair a, Repair b) {
+            return b.repairDate.compareTo(a.repairDate);
+         }
+      });
+      return repairs;
+   }
+
+}//end ShardedStore
@@ -0,0 +1,212 @@
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * This class runs database work in two workload classes, each with its own
+ * threads, connections, queue and statement timeout: INTERACTIVE for the
+ * lookups and bookings a user waits on, REPORTING for history, analytics
+ * and bulk jobs. Reports can use up their own threads, connections and
+ * queue, but never those of the interactive class. When a queue is full,
+ * more work of that class is turned away at once instead of piling up.
+ *
+ * For each class it counts the work completed, failed, timed out and
+ * turned away, the queue depth and how long work waited for a thread.
+ * report() writes these counts as CSV.
+ */
+public class WorkloadScheduler {
+
+   public enum Workload { INTERACTIVE, REPORTING }
+
+   public interface Work<T> {
+      T run(Connection connection) throws SQLException;
+   }
+
+   /**
+    * The share of one workload class: threads and connections (one per
+    * thread), queued work beyond them, and the statement timeout of its
+    * connections.
+    */
+   public static class Budget {
+      public final int connections;
+      public final int queueDepth;
+      public final long statementTimeoutMillis;
+
+      public Budget(int connections, int queueDepth, long statementTimeoutMillis) {
+         this.connections = connections;
+         this.queueDepth = queueDepth;
+         this.statementTimeoutMillis = statementTimeoutMillis;
+      }
+   }
+
+   static final String HEADER = "workload,connections,queueDepth,statementTimeoutMillis,"
+                                + "completed,failed,timedOut,rejected,maxQueued,meanWaitMillis,maxWaitMillis";
+
+   // SQLSTATE of a statement cancelled by statement_timeout.
+   static final String QUERY_CANCELED = "57014";
+   // SQLSTATE class of a lost or refused connection.
+   static final String CONNECTION_EXCEPTION = "08";
+
+   private static class Lane {
+      final Budget budget;
+      final ConnectionPool pool;
+      final ThreadPoolExecutor executor;
+      final AtomicLong completed = new AtomicLong();
+      final AtomicLong failed = new AtomicLong();
+      final AtomicLong timedOut = new AtomicLong();
+      final AtomicLong rejected = new AtomicLong();
+      final AtomicLong maxQueued = new AtomicLong();
+      final AtomicLong waitNanos = new AtomicLong();
+      final AtomicLong maxWaitNanos = new AtomicLong();
+
+      Lane(Budget budget, ConnectionPool pool, ThreadPoolExecutor executor) {
+         this.budget = budget;
+         this.pool = pool;
+         this.executor = executor;
+      }
+   }
+
+   private final Map<Workload, Lane> _lanes = new EnumMap<Workload, Lane>(Workload.class);
+
+   /**
+    * @param factory opens the connections of every class
+    * @param budgets the share of each class
+    */
+   public WorkloadScheduler(final ConnectionPool.Factory factory, Map<Workload, Budget> budgets) {
+      for (final Workload workload : Workload.values()) {
+         final Budget budget = budgets.get(workload);
+         ConnectionPool pool = new ConnectionPool(new ConnectionPool.Factory() {
+            public Connection open() throws SQLException {
+               Connection connection = factory.open();
+               setStatementTimeout(connection, budget.statementTimeoutMillis);
+               return connection;
+            }
+         }, budget.connections);
+         ThreadPoolExecutor executor = new ThreadPoolExecutor(budget.connections, budget.connections,
+            0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(budget.queueDepth), new ThreadFactory() {
+               public Thread newThread(Runnable task) {
+                  Thread thread = new Thread(task, "Hotel " + workload.name().toLowerCase());
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            });
+         _lanes.put(workload, new Lane(budget, pool, executor));
+      }
+   }
+
+   /**
+    * Sets the statement timeout of a connection; 0 means none.
+    */
+   public static void setStatementTimeout(Connection connection, long millis) throws SQLException {
+      Statement stmt = connection.createStatement();
+      try {
+         stmt.execute("SET statement_timeout = " + millis);
+      } finally {
+         stmt.close();
+      }
+   }
+
+   public Budget budget(Workload workload) {
+      return _lanes.get(workload).budget;
+   }
+
+   /**
+    * Runs work of a class on one of its threads and connections.
+    *
+    * @return the future result; failed with the SQLException of the work,
+    * or straight away when the queue of the class is full
+    */
+   public <T> CompletableFuture<T> submit(final Workload workload, final Work<T> work) {
+      final Lane lane = _lanes.get(workload);
+      final long queuedAt = System.nanoTime();
+      CompletableFuture<T> result;
+      try {
+         result = CompletableFuture.supplyAsync(new Supplier<T>() {
+            public T get() {
+               long waited = System.nanoTime() - queuedAt;
+               lane.waitNanos.addAndGet(waited);
+               raise(lane.maxWaitNanos, waited);
+               Connection connection = null;
+               try {
+                  connection = lane.pool.borrow();
+                  T value = work.run(connection);
+                  lane.completed.incrementAndGet();
+                  return value;
+               } catch (SQLException e) {
+                  (QUERY_CANCELED.equals(e.getSQLState()) ? lane.timedOut : lane.failed).incrementAndGet();
+                  // a broken connection is replaced rather than handed to the next work.
+                  if (connection != null && e.getSQLState() != null && e.getSQLState().startsWith(CONNECTION_EXCEPTION)) {
+                     lane.pool.discard(connection);
+                     connection = null;
+                  }
+                  throw new CompletionException(e.getMessage(), e);
+               } finally {
+                  if (connection != null)
+                     lane.pool.release(connection);
+               }
+            }
+         }, lane.executor);
+      } catch (RejectedExecutionException e) {
+         lane.rejected.incrementAndGet();
+         SQLException busy = new SQLException("Too many " + workload.name().toLowerCase()
+                                              + " operations running, please try again later");
+         result = new CompletableFuture<T>();
+         result.completeExceptionally(new CompletionException(busy.getMessage(), busy));
+         return result;
+      }
+      raise(lane.maxQueued, lane.executor.getQueue().size());
+      return result;
+   }//end submit
+
+   private static void raise(AtomicLong max, long value) {
+      long current;
+      while (value > (current = max.get()) && !max.compareAndSet(current, value))
+         ;
+   }
+
+   /**
+    * @return the work of the class waiting for a thread right now
+    */
+   public int queued(Workload workload) {
+      return _lanes.get(workload).executor.getQueue().size();
+   }
+
+   /**
+    * Writes the counts of each class as CSV, after HEADER.
+    */
+   public void report(PrintStream out) {
+      out.println(HEADER);
+      for (Map.Entry<Workload, Lane> entry : _lanes.entrySet()) {
+         Lane lane = entry.getValue();
+         long started = lane.completed.get() + lane.failed.get() + lane.timedOut.get();
+         out.println(String.format("%s,%d,%d,%d,%d,%d,%d,%d,%d,%.3f,%.3f",
+            entry.getKey().name().toLowerCase(), lane.budget.connections, lane.budget.queueDepth,
+            lane.budget.statementTimeoutMillis, lane.completed.get(), lane.failed.get(), lane.timedOut.get(),
+            lane.rejected.get(), lane.maxQueued.get(),
+            started == 0 ? 0.0 : lane.waitNanos.get() / 1e6 / started, lane.maxWaitNanos.get() / 1e6));
+      }
+   }//end report
+
+   /**
+    * Stops the threads and closes the connections of every class.
+    */
+   public void close() {
+      for (Lane lane : _lanes.values()) {
+         lane.executor.shutdown();
+         lane.pool.close();
+      }
+   }
+
+}//end WorkloadScheduler
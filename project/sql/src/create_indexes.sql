@@ -0,0 +1,23 @@
+--Partitioned indexes: declared once on RoomBookings and created on every partition, including the
+--ones added later by roombookings_maintain_partitions().
+
+--viewRooms / bookRooms availability checks and the bookingDate range in viewBookingHistoryofHotel.
+CREATE INDEX RoomBookings_hotel_date_idx ON RoomBookings(hotelID, bookingDate, roomNumber);
+
+--viewRecentBookingsfromCustomer: with range partitions the planner walks partitions newest first
+--(ordered append) and stops as soon as the LIMIT is satisfied.
+CREATE INDEX RoomBookings_customer_date_idx ON RoomBookings(customerID, bookingDate DESC);
+
+--BookingSnapshot.refresh(): the rows inserted by transactions from its last horizon on.
+CREATE INDEX RoomBookings_insert_txid_idx ON RoomBookings(insertTxid);
+
+--Bounding box prefilter of findNearestAvailableRooms.
+CREATE INDEX Hotel_location_idx ON Hotel(latitude, longitude);
+
+--viewRecentUpdates: the latest updates of a manager are the first entries of the index, however
+--long the log is; the rollups have the same access path for managers without recent updates.
+CREATE INDEX RoomUpdatesLog_manager_updated_idx ON RoomUpdatesLog(managerID, updatedOn DESC);
+CREATE INDEX RoomUpdatesDaily_manager_last_idx ON RoomUpdatesDaily(managerID, lastUpdate DESC);
+
+--compact_room_updates: the oldest rows of the log first.
+CREATE INDEX RoomUpdatesLog_updated_idx ON RoomUpdatesLog(updatedOn);
@@ -6,11 +6,18 @@ DROP TABLE IF EXISTS RoomBookings CASCADE;
 DROP TABLE IF EXISTS RoomRepairs CASCADE;
 DROP TABLE IF EXISTS RoomRepairRequests CASCADE;
 DROP TABLE IF EXISTS RoomUpdatesLog CASCADE;
+DROP TABLE IF EXISTS RoomUpdatesDaily CASCADE;
+DROP TABLE IF EXISTS RoomRepairStats CASCADE;
+DROP TABLE IF EXISTS CompanyRepairStats CASCADE;
+DROP TABLE IF EXISTS MonthlyRepairStats CASCADE;
+DROP TABLE IF EXISTS ShardMap CASCADE;
+DROP SCHEMA IF EXISTS archive CASCADE;
 
 CREATE TABLE Users ( userID serial,
                      name char(50),
                      password char(11) NOT NULL,
                      userType char(10),  ---userType can be 'customer' or 'manager' 
+                     passwordHash text,  ---salted PBKDF2 hash; password is emptied once it is set
                      PRIMARY KEY(userID)
 );
 --Note: 'serial' is a special datatype of Postgres. The value of the field having serial datatype
@@ -26,10 +33,13 @@ CREATE TABLE Hotel ( hotelID integer,
                      FOREIGN KEY(managerUserID) REFERENCES Users(userID)
 );
 
+--version is bumped by every update of price or imageURL: updates compare and set it so that
+--concurrent changes to the same room are detected instead of overwritten.
 CREATE TABLE Rooms ( hotelID integer NOT NULL, 
                     roomNumber integer NOT NULL,
                     price integer NOT NULL,
                     imageURL char(30),
+                    version integer NOT NULL DEFAULT 0,
                     PRIMARY KEY(hotelID, roomNumber), 
                     FOREIGN KEY(hotelID) REFERENCES Hotel(hotelID) ON DELETE CASCADE
 );
@@ -42,16 +52,24 @@ CREATE TABLE MaintenanceCompany (
 );
 
 
+--RoomBookings is range partitioned on bookingDate so that lookups for a single date or a date
+--range only touch the partitions covering that window. Past years get one partition each and the
+--current year onwards gets monthly partitions created by roombookings_maintain_partitions().
+--There is deliberately no DEFAULT partition: it would block ordered appends on bookingDate and
+--every later CREATE of a partition overlapping rows stored in it.
+--insertTxid is the transaction that inserted the row; BookingSnapshot reads the rows inserted
+--since its last refresh with a range scan on it.
 CREATE TABLE RoomBookings ( 
                     bookingID serial NOT NULL,
                     customerID integer NOT NULL,
                     hotelID integer NOT NULL,
                     roomNumber integer NOT NULL, 
                     bookingDate date NOT NULL, 
-                    PRIMARY KEY(bookingID),
+                    insertTxid bigint NOT NULL DEFAULT txid_current(),
+                    PRIMARY KEY(bookingID, bookingDate),
                     FOREIGN KEY(customerID) REFERENCES Users(userID),
                     FOREIGN KEY(hotelID, roomNumber) REFERENCES Rooms(hotelID, roomNumber)
-);
+) PARTITION BY RANGE (bookingDate);
 
 CREATE TABLE RoomRepairs (  
                             repairID serial,
@@ -86,9 +104,237 @@ CREATE TABLE RoomUpdatesLog (
                             FOREIGN KEY(hotelID, roomNumber) REFERENCES Rooms(hotelID, roomNumber)
 );
 
+--Room updates older than the retention window, compacted to one row per room, manager and day by
+--compact_room_updates(). lastUpdate is the time of the latest update of the day.
+CREATE TABLE RoomUpdatesDaily (
+                            hotelID integer NOT NULL,
+                            roomNumber integer NOT NULL,
+                            managerID integer NOT NULL,
+                            updateDay date NOT NULL,
+                            updateCount integer NOT NULL,
+                            lastUpdate timestamp NOT NULL,
+                            PRIMARY KEY(hotelID, roomNumber, managerID, updateDay),
+                            FOREIGN KEY(managerID) REFERENCES Users(userID),
+                            FOREIGN KEY(hotelID, roomNumber) REFERENCES Rooms(hotelID, roomNumber)
+);
+
+--The following tables hold repair aggregates for the repair analytics of managers. They are kept
+--up to date by a trigger on RoomRepairs, so reading them never scans the repair history.
+--Mean time between repairs of a room is (lastRepair - firstRepair) / (repairCount - 1).
+CREATE TABLE RoomRepairStats (
+                            hotelID integer NOT NULL,
+                            roomNumber integer NOT NULL,
+                            repairCount integer NOT NULL,
+                            firstRepair date NOT NULL,
+                            lastRepair date NOT NULL,
+                            PRIMARY KEY(hotelID, roomNumber),
+                            FOREIGN KEY(hotelID, roomNumber) REFERENCES Rooms(hotelID, roomNumber)
+);
+
+CREATE TABLE CompanyRepairStats (
+                            hotelID integer NOT NULL,
+                            companyID integer NOT NULL,
+                            repairCount integer NOT NULL,
+                            PRIMARY KEY(hotelID, companyID),
+                            FOREIGN KEY(hotelID) REFERENCES Hotel(hotelID),
+                            FOREIGN KEY(companyID) REFERENCES MaintenanceCompany(companyID)
+);
+
+CREATE TABLE MonthlyRepairStats (
+                            hotelID integer NOT NULL,
+                            repairMonth date NOT NULL,
+                            repairCount integer NOT NULL,
+                            PRIMARY KEY(hotelID, repairMonth),
+                            FOREIGN KEY(hotelID) REFERENCES Hotel(hotelID)
+);
+
+CREATE OR REPLACE FUNCTION maintain_repair_stats()
+RETURNS trigger AS $stats$
+BEGIN
+    INSERT INTO RoomRepairStats VALUES (NEW.hotelID, NEW.roomNumber, 1, NEW.repairDate, NEW.repairDate)
+    ON CONFLICT (hotelID, roomNumber) DO UPDATE
+        SET repairCount = RoomRepairStats.repairCount + 1,
+            firstRepair = least(RoomRepairStats.firstRepair, EXCLUDED.firstRepair),
+            lastRepair = greatest(RoomRepairStats.lastRepair, EXCLUDED.lastRepair);
+    INSERT INTO CompanyRepairStats VALUES (NEW.hotelID, NEW.companyID, 1)
+    ON CONFLICT (hotelID, companyID) DO UPDATE
+        SET repairCount = CompanyRepairStats.repairCount + 1;
+    INSERT INTO MonthlyRepairStats VALUES (NEW.hotelID, date_trunc('month', NEW.repairDate)::date, 1)
+    ON CONFLICT (hotelID, repairMonth) DO UPDATE
+        SET repairCount = MonthlyRepairStats.repairCount + 1;
+    RETURN NULL;
+END;
+$stats$ LANGUAGE plpgsql;
+
+CREATE TRIGGER RoomRepairs_stats AFTER INSERT ON RoomRepairs
+    FOR EACH ROW EXECUTE PROCEDURE maintain_repair_stats();
+
 ---The following is the definition of a user-defined sql function for calculating the distance between two lat-long pairs.
 CREATE OR REPLACE FUNCTION calculate_distance(lat1 decimal, long1 decimal, lat2 decimal, long2 decimal)
 RETURNS decimal AS $dist$
 BEGIN RETURN sqrt((lat1 - lat2) * (lat1 - lat2) + (long1 - long2) * (long1 - long2));
 END;
-$dist$ LANGUAGE plpgsql;
\ No newline at end of file
+$dist$ LANGUAGE plpgsql;
+---Creates the RoomBookings partition covering [fromDate, toDate) unless it already exists.
+CREATE OR REPLACE FUNCTION create_roombookings_partition(partName text, fromDate date, toDate date)
+RETURNS void AS $part$
+BEGIN
+    IF to_regclass(partName) IS NULL THEN
+        EXECUTE format('CREATE TABLE %I PARTITION OF RoomBookings FOR VALUES FROM (%L) TO (%L)',
+                       partName, fromDate, toDate);
+    END IF;
+EXCEPTION WHEN duplicate_table THEN
+    NULL;   ---created by another session meanwhile
+END;
+$part$ LANGUAGE plpgsql;
+
+---Makes sure monthly partitions exist from the start of the current year up to monthsAhead months
+---from today. Idempotent, the application calls it on start and then daily.
+CREATE OR REPLACE FUNCTION roombookings_maintain_partitions(monthsAhead integer)
+RETURNS void AS $maint$
+DECLARE
+    m date := date_trunc('year', CURRENT_DATE)::date;
+BEGIN
+    WHILE m <= (date_trunc('month', CURRENT_DATE) + make_interval(months => monthsAhead))::date LOOP
+        PERFORM create_roombookings_partition('roombookings_m' || to_char(m, 'YYYY_MM'),
+                                              m, (m + interval '1 month')::date);
+        m := (m + interval '1 month')::date;
+    END LOOP;
+END;
+$maint$ LANGUAGE plpgsql;
+
+---Creates the monthly partition holding day, for days from the current year on that
+---roombookings_maintain_partitions() has not reached yet. Earlier years have their partitions already.
+CREATE OR REPLACE FUNCTION roombookings_ensure_partition(day date)
+RETURNS void AS $ens$
+DECLARE
+    m date := date_trunc('month', day)::date;
+BEGIN
+    IF day >= date_trunc('year', CURRENT_DATE) THEN
+        PERFORM create_roombookings_partition('roombookings_m' || to_char(m, 'YYYY_MM'),
+                                              m, (m + interval '1 month')::date);
+    END IF;
+END;
+$ens$ LANGUAGE plpgsql;
+
+---Detaches every RoomBookings partition that ends on or before keepFrom and moves it into the
+---archive schema. Archived bookings are no longer visible through RoomBookings, nor to the
+---application; they stay queryable as archive.<partition>, e.g.
+---    SELECT * FROM archive.roombookings_y2015 WHERE hotelID = 1;
+---Each archived table keeps its partition bounds as its comment, so
+---reattach_roombookings_partition('roombookings_y2015') can put it back. Bookings for the dates
+---of an archived partition fail until then, as no partition holds them. The application only
+---archives when started with -Dhotel.bookings.keepYears=<years>.
+CREATE OR REPLACE FUNCTION archive_roombookings_partitions(keepFrom date)
+RETURNS integer AS $arch$
+DECLARE
+    part record;
+    moved integer := 0;
+BEGIN
+    EXECUTE 'CREATE SCHEMA IF NOT EXISTS archive';
+    FOR part IN
+        SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) AS bound,
+               substring(pg_get_expr(c.relpartbound, c.oid) from 'TO \(''([^'']+)''\)')::date AS upperBound
+        FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 'roombookings'::regclass
+    LOOP
+        IF part.upperBound <= keepFrom THEN
+            EXECUTE format('COMMENT ON TABLE %I IS %L', part.relname, part.bound);
+            EXECUTE format('ALTER TABLE RoomBookings DETACH PARTITION %I', part.relname);
+            EXECUTE format('ALTER TABLE %I SET SCHEMA archive', part.relname);
+            moved := moved + 1;
+        END IF;
+    END LOOP;
+    RETURN moved;
+END;
+$arch$ LANGUAGE plpgsql;
+
+---Moves an archived partition back out of the archive schema and attaches it to RoomBookings
+---again, with the bounds it had.
+CREATE OR REPLACE FUNCTION reattach_roombookings_partition(partName text)
+RETURNS void AS $reat$
+DECLARE
+    bound text := obj_description(format('archive.%I', partName)::regclass, 'pg_class');
+BEGIN
+    IF bound IS NULL THEN
+        RAISE EXCEPTION 'archive.% has no partition bounds', partName;
+    END IF;
+    EXECUTE format('ALTER TABLE archive.%I SET SCHEMA public', partName);
+    EXECUTE format('ALTER TABLE RoomBookings ATTACH PARTITION %I %s', partName, bound);
+    EXECUTE format('COMMENT ON TABLE %I IS NULL', partName);
+END;
+$reat$ LANGUAGE plpgsql;
+
+---Historical partitions: one for anything before 2000 and one per year up to the current year,
+---from which point the monthly partitions take over.
+DO $hist$
+BEGIN
+    EXECUTE 'CREATE TABLE roombookings_before2000 PARTITION OF RoomBookings FOR VALUES FROM (MINVALUE) TO (''2000-01-01'')';
+    FOR y IN 2000 .. extract(year from CURRENT_DATE)::integer - 1 LOOP
+        PERFORM create_roombookings_partition('roombookings_y' || y,
+                                              make_date(y, 1, 1), make_date(y + 1, 1, 1));
+    END LOOP;
+    PERFORM roombookings_maintain_partitions(12);
+END;
+$hist$;
+
+---Sharding: hotels hash to buckets, and ShardMap, read from shard 0 only, says which shard holds
+---each bucket. moving is set while ShardTool moves a bucket; its hotels are not written meanwhile.
+CREATE TABLE ShardMap (
+                            bucket integer NOT NULL,
+                            shard integer NOT NULL,
+                            moving boolean NOT NULL DEFAULT false,
+                            PRIMARY KEY(bucket)
+);
+
+---Interleaves the serial columns of the shards, so rows keep their IDs when moved to another
+---shard: shard shardIndex hands out IDs equal to shardIndex modulo maxShards.
+CREATE OR REPLACE FUNCTION configure_shard(shardIndex integer, maxShards integer)
+RETURNS void AS $shard$
+DECLARE
+    seq text;
+BEGIN
+    FOREACH seq IN ARRAY ARRAY['roombookings_bookingid_seq', 'roomrepairs_repairid_seq',
+                               'roomrepairrequests_requestnumber_seq', 'roomupdateslog_updatenumber_seq'] LOOP
+        EXECUTE format('ALTER SEQUENCE %I INCREMENT BY %s RESTART WITH %s', seq, maxShards,
+                       (nextval(seq::regclass) / maxShards + 1) * maxShards + shardIndex);
+    END LOOP;
+END;
+$shard$ LANGUAGE plpgsql;
+
+---Parses a date typed in any form Postgres accepts, or returns NULL instead of failing.
+CREATE OR REPLACE FUNCTION try_date(value text)
+RETURNS date AS $try$
+BEGIN
+    RETURN value::date;
+EXCEPTION WHEN others THEN
+    RETURN NULL;
+END;
+$try$ LANGUAGE plpgsql STABLE;
+
+---Moves up to batchSize RoomUpdatesLog rows older than keepDays days into the RoomUpdatesDaily
+---rollups, oldest first, and returns how many it moved. Called repeatedly until it returns 0, so
+---each call is a short transaction.
+CREATE OR REPLACE FUNCTION compact_room_updates(keepDays integer, batchSize integer)
+RETURNS integer AS $compact$
+DECLARE
+    moved integer;
+BEGIN
+    WITH old AS (
+        DELETE FROM RoomUpdatesLog WHERE updateNumber IN (
+            SELECT updateNumber FROM RoomUpdatesLog
+            WHERE updatedOn < CURRENT_DATE - keepDays
+            ORDER BY updatedOn LIMIT batchSize)
+        RETURNING hotelID, roomNumber, managerID, updatedOn
+    ), rolled AS (
+        INSERT INTO RoomUpdatesDaily
+        SELECT hotelID, roomNumber, managerID, updatedOn::date, count(*), max(updatedOn)
+        FROM old GROUP BY hotelID, roomNumber, managerID, updatedOn::date
+        ON CONFLICT (hotelID, roomNumber, managerID, updateDay) DO UPDATE
+            SET updateCount = RoomUpdatesDaily.updateCount + EXCLUDED.updateCount,
+                lastUpdate = greatest(RoomUpdatesDaily.lastUpdate, EXCLUDED.lastUpdate)
+    )
+    SELECT count(*) INTO moved FROM old;
+    RETURN moved;
+END;
+$compact$ LANGUAGE plpgsql;
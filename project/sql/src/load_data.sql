@@ -1,5 +1,5 @@
 
-COPY Users
+COPY Users (userID, name, password, userType)
 FROM '/extra/abogh005/project/data/users.csv' 
 WITH DELIMITER ',' CSV HEADER;
 ALTER SEQUENCE users_userID_seq RESTART 101; 
@@ -8,7 +8,7 @@ COPY Hotel
 FROM '/extra/abogh005/project/data/hotels.csv'
 WITH DELIMITER ',' CSV HEADER;   
 
-COPY Rooms
+COPY Rooms (hotelID, roomNumber, price, imageURL)
 FROM '/extra/abogh005/project/data/rooms.csv'
 WITH DELIMITER ',' CSV HEADER;
 
@@ -16,7 +16,7 @@ COPY MaintenanceCompany
 FROM '/extra/abogh005/project/data/company.csv'
 WITH DELIMITER ',' CSV HEADER;
 
-COPY RoomBookings
+COPY RoomBookings (bookingID, customerID, hotelID, roomNumber, bookingDate)
 FROM '/extra/abogh005/project/data/bookings.csv'
 WITH DELIMITER ',' CSV HEADER;
 ALTER SEQUENCE RoomBookings_bookingID_seq RESTART 501; 
@@ -0,0 +1,97 @@
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class imports bookings files into the database named by
+ * -Dhotel.test.db=<dbname>:<port>:<user>, made with create_tables.sql and
+ * load_data.sql; without it the cases are skipped. The driver has no COPY
+ * FROM STDIN, so the server reads the staged file itself: the user must be
+ * allowed to read server files and the server must see the temp directory.
+ */
+public class BookingImportTest extends Check {
+
+   private Hotel _hotel;
+   private File _dir;
+   private LocalDate _day;
+   private int _room;
+
+   protected String skipReason() {
+      return System.getProperty("hotel.test.db") == null ? "no -Dhotel.test.db" : null;
+   }
+
+   protected void setUp() throws Exception {
+      String[] db = System.getProperty("hotel.test.db").split(":");
+      Class.forName("org.postgresql.Driver");
+      _hotel = new Hotel(db[0], db[1], db[2], "");
+      _dir = Files.createTempDirectory("import").toFile();
+      _dir.setReadable(true, false);
+      _dir.setExecutable(true, false);
+      // a room night far ahead, different on each run so reruns find it free.
+      _day = HotelStoreTest.someDay();
+      _room = 1 + new Random().nextInt(10);
+   }
+
+   protected void tearDown() {
+      if (_hotel != null)
+         _hotel.cleanup();
+      for (File file : _dir.listFiles())
+         file.delete();
+      _dir.delete();
+   }
+
+   // writes the lines to a bookings file and imports it; returns "accepted,rejected", then the reject lines.
+   private List<String> importLines(String name, String... lines) throws Exception {
+      File file = new File(_dir, name);
+      PrintStream out = new PrintStream(file, "UTF-8");
+      out.println("customerID,hotelID,roomNumber,bookingDate");
+      for (String line : lines)
+         out.println(line);
+      out.close();
+      file.setReadable(true, false);
+      File rejects = new File(_dir, name + ".rejects.csv");
+      int[] counts = _hotel.importBookings(file, rejects);
+      List<String> result = Files.readAllLines(rejects.toPath(), StandardCharsets.UTF_8);
+      equal("line,customerID,hotelID,roomNumber,bookingDate,reason", result.get(0), "reject file header");
+      result.set(0, counts[0] + "," + counts[1]);
+      return result;
+   }
+
+   private String row(int customer, int room, Object day) {
+      return customer + "," + HotelStoreTest.HOTEL + "," + room + "," + day;
+   }
+
+   public void testRejectReasons() throws Exception {
+      LocalDate other = _day.plusDays(1);
+      List<String> result = importLines("reasons.csv",
+         row(HotelStoreTest.CUSTOMER, _room, _day),
+         HotelStoreTest.CUSTOMER + ",one," + _room + "," + _day,
+         row(HotelStoreTest.CUSTOMER, _room, "2015-06-01"),
+         row(HotelStoreTest.CUSTOMER, _room, "not a date"),
+         row(HotelStoreTest.NO_USER, _room, other),
+         row(HotelStoreTest.CUSTOMER, HotelStoreTest.NO_ROOM, other),
+         row(HotelStoreTest.CUSTOMER, _room, _day));
+      equal("1,6", result.get(0), "accepted,rejected");
+      equal("3," + HotelStoreTest.CUSTOMER + ",one," + _room + "," + _day + ",malformed row", result.get(1), "line 3");
+      equal("4," + row(HotelStoreTest.CUSTOMER, _room, "2015-06-01") + ",date in the past", result.get(2), "line 4");
+      equal("5," + row(HotelStoreTest.CUSTOMER, _room, "not a date") + ",malformed row", result.get(3), "line 5");
+      equal("6," + row(HotelStoreTest.NO_USER, _room, other) + ",unknown customer", result.get(4), "line 6");
+      equal("7," + row(HotelStoreTest.CUSTOMER, HotelStoreTest.NO_ROOM, other) + ",unknown room", result.get(5), "line 7");
+      equal("8," + row(HotelStoreTest.CUSTOMER, _room, _day) + ",same room and date as line 2", result.get(6), "line 8");
+   }
+
+   public void testBookedRoomIsRejectedOnTheNextImport() throws Exception {
+      equal("2,0", importLines("first.csv",
+         row(HotelStoreTest.CUSTOMER, _room, _day), row(HotelStoreTest.CUSTOMER, _room, _day.plusDays(1))).get(0),
+         "first import");
+      List<String> result = importLines("second.csv",
+         row(HotelStoreTest.CUSTOMER, _room, _day.plusDays(1)), row(HotelStoreTest.CUSTOMER, _room, _day.plusDays(2)));
+      equal("1,1", result.get(0), "second import");
+      equal("2," + row(HotelStoreTest.CUSTOMER, _room, _day.plusDays(1)) + ",room already booked", result.get(1), "line 2");
+   }
+
+}//end BookingImportTest
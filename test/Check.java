@@ -0,0 +1,95 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class is the base of the tests and runs them without a test
+ * framework. Every public no-argument method of a test class whose name
+ * starts with "test" is a case; each case runs on a fresh instance, between
+ * setUp() and tearDown(), and passes unless it throws. A class whose
+ * skipReason() is not null is reported and not run.
+ *
+ * Usage: java Check <test class> ...; the exit status is the number of
+ * failed cases.
+ */
+public abstract class Check {
+
+   /**
+    * @return why the cases of this class cannot run here, or null to run them
+    */
+   protected String skipReason() {
+      return null;
+   }
+
+   protected void setUp() throws Exception {
+   }
+
+   protected void tearDown() throws Exception {
+   }
+
+   public static void that(boolean condition, String what) {
+      if (!condition)
+         throw new AssertionError(what);
+   }
+
+   public static void equal(Object expected, Object actual, String what) {
+      if (expected == null ? actual != null : !expected.equals(actual))
+         throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+   }
+
+   public static void main(String[] args) throws Exception {
+      int failed = 0;
+      for (String name : args)
+         failed += run(Class.forName(name).asSubclass(Check.class));
+      System.exit(failed);
+   }
+
+   // runs the cases of one class; returns the number that failed.
+   static int run(Class<? extends Check> type) throws Exception {
+      String skip = type.getDeclaredConstructor().newInstance().skipReason();
+      if (skip != null) {
+         System.out.println(type.getName() + ": skipped, " + skip);
+         return 0;
+      }
+      List<Method> cases = new ArrayList<Method>();
+      for (Method method : type.getMethods())
+         if (method.getName().startsWith("test") && method.getParameterTypes().length == 0
+             && !Modifier.isStatic(method.getModifiers()))
+            cases.add(method);
+      Collections.sort(cases, new Comparator<Method>() {
+         public int compare(Method a, Method b) {
+            return a.getName().compareTo(b.getName());
+         }
+      });
+      int failed = 0;
+      for (Method method : cases) {
+         Check test = type.getDeclaredConstructor().newInstance();
+         Throwable failure = null;
+         try {
+            test.setUp();
+            try {
+               method.invoke(test);
+            } finally {
+               test.tearDown();
+            }
+         } catch (InvocationTargetException e) {
+            failure = e.getCause();
+         } catch (Exception e) {
+            failure = e;
+         }
+         if (failure == null) {
+            System.out.println(type.getName() + "." + method.getName() + ": ok");
+         } else {
+            failed++;
+            System.out.println(type.getName() + "." + method.getName() + ": FAILED");
+            failure.printStackTrace(System.out);
+         }//end if
+      }
+      return failed;
+   }//end run
+
+}//end Check
@@ -0,0 +1,202 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * This class checks that the pool reuses working connections and replaces
+ * closed or broken ones without ever holding more than its size. The
+ * connections are fakes whose state the cases set.
+ */
+public class ConnectionPoolTest extends Check {
+
+   // a fake connection: closed, and whether its queries fail.
+   private static class Fake {
+      boolean closed = false;
+      boolean broken = false;
+      int queries = 0;
+   }
+
+   private final List<Fake> _opened = new ArrayList<Fake>();
+   private final List<Connection> _connections = new ArrayList<Connection>();
+   private boolean _refuse = false;
+
+   private ConnectionPool pool(int size, long validateIdleMillis) {
+      return new ConnectionPool(new ConnectionPool.Factory() {
+         public Connection open() throws SQLException {
+            if (_refuse)
+               throw new SQLException("connection refused", "08001");
+            return connection();
+         }
+      }, size, validateIdleMillis);
+   }
+
+   private Fake fake(Connection connection) {
+      return _opened.get(_connections.indexOf(connection));
+   }
+
+   public void testReleasedConnectionIsReused() throws Exception {
+      ConnectionPool pool = pool(2, 60000);
+      Connection first = pool.borrow();
+      pool.release(first);
+      equal(first, pool.borrow(), "reused connection");
+      equal(1, _opened.size(), "connections opened");
+      equal(0, fake(first).queries, "recently used connection not checked");
+   }
+
+   public void testClosedConnectionIsReplaced() throws Exception {
+      ConnectionPool pool = pool(1, 60000);
+      Connection first = pool.borrow();
+      fake(first).closed = true;
+      pool.release(first);
+      Connection second = pool.borrow();
+      that(second != first, "new connection");
+      pool.release(second);
+      fake(second).closed = true;
+      that(pool.borrow() != second, "connection closed while idle replaced");
+      equal(3, _opened.size(), "connections opened");
+   }
+
+   public void testIdleConnectionIsCheckedWithAQuery() throws Exception {
+      ConnectionPool pool = pool(1, 0);
+      Connection first = pool.borrow();
+      pool.release(first);
+      equal(first, pool.borrow(), "working connection reused");
+      equal(1, fake(first).queries, "check queries");
+      pool.release(first);
+      fake(first).broken = true;
+      Connection second = pool.borrow();
+      that(second != first, "broken connection replaced");
+      that(fake(first).closed, "broken connection closed");
+   }
+
+   public void testDiscardMakesRoomForANewConnection() throws Exception {
+      final ConnectionPool pool = pool(1, 60000);
+      final Connection first = pool.borrow();
+      CompletableFuture<Connection> waiting = CompletableFuture.supplyAsync(new Supplier<Connection>() {
+         public Connection get() {
+            try {
+               return pool.borrow();
+            } catch (SQLException e) {
+               throw new RuntimeException(e);
+            }
+         }
+      });
+      Thread.sleep(100);
+      that(!waiting.isDone(), "borrower waits while the pool is full");
+      pool.discard(first);
+      Connection second = waiting.get(5, TimeUnit.SECONDS);
+      that(second != first, "waiting borrower gets a new connection");
+      that(fake(first).closed, "discarded connection closed");
+   }
+
+   public void testFailedOpenKeepsTheRoom() throws Exception {
+      ConnectionPool pool = pool(1, 60000);
+      _refuse = true;
+      try {
+         pool.borrow();
+         that(false, "borrow without a database");
+      } catch (SQLException e) {
+         equal("08001", e.getSQLState(), "SQLState");
+      }
+      _refuse = false;
+      that(pool.borrow() != null, "borrow once the database is back");
+   }
+
+   public void testSchedulerDiscardsConnectionsThatBroke() throws Exception {
+      Map<WorkloadScheduler.Workload, WorkloadScheduler.Budget> budgets =
+         new EnumMap<WorkloadScheduler.Workload, WorkloadScheduler.Budget>(WorkloadScheduler.Workload.class);
+      for (WorkloadScheduler.Workload workload : WorkloadScheduler.Workload.values())
+         budgets.put(workload, new WorkloadScheduler.Budget(1, 1, 1000));
+      WorkloadScheduler scheduler = new WorkloadScheduler(new ConnectionPool.Factory() {
+         public Connection open() {
+            return connection();
+         }
+      }, budgets);
+      try {
+         final List<Connection> used = new ArrayList<Connection>();
+         WorkloadScheduler.Work<Object> lost = new WorkloadScheduler.Work<Object>() {
+            public Object run(Connection connection) throws SQLException {
+               used.add(connection);
+               throw new SQLException("An I/O error occurred while sending to the backend", "08006");
+            }
+         };
+         WorkloadScheduler.Work<Object> fine = new WorkloadScheduler.Work<Object>() {
+            public Object run(Connection connection) {
+               used.add(connection);
+               return null;
+            }
+         };
+         try {
+            scheduler.submit(WorkloadScheduler.Workload.INTERACTIVE, lost).get(5, TimeUnit.SECONDS);
+            that(false, "work on a lost connection has no result");
+         } catch (ExecutionException e) {
+            equal("08006", ((SQLException) e.getCause()).getSQLState(), "SQLState");
+         }
+         scheduler.submit(WorkloadScheduler.Workload.INTERACTIVE, fine).get(5, TimeUnit.SECONDS);
+         that(used.get(0) != used.get(1), "work after a lost connection gets a new one");
+         that(fake(used.get(0)).closed, "lost connection closed");
+      } finally {
+         scheduler.close();
+      }
+   }
+
+   // ---------------------------------------------------------------- fakes
+
+   private synchronized Connection connection() {
+      final Fake state = new Fake();
+      Connection connection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+         new Class<?>[] { Connection.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+               String name = method.getName();
+               if (name.equals("isClosed"))
+                  return state.closed;
+               if (name.equals("close")) {
+                  state.closed = true;
+                  return null;
+               }
+               if (name.equals("createStatement"))
+                  return statement(state);
+               if (name.equals("equals"))
+                  return proxy == args[0];
+               if (name.equals("hashCode"))
+                  return System.identityHashCode(proxy);
+               throw new UnsupportedOperationException(name);
+            }
+         });
+      _opened.add(state);
+      _connections.add(connection);
+      return connection;
+   }
+
+   private static Statement statement(final Fake state) {
+      return (Statement) Proxy.newProxyInstance(ConnectionPoolTest.class.getClassLoader(),
+         new Class<?>[] { Statement.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+               String name = method.getName();
+               if (name.equals("close"))
+                  return null;
+               if (!name.equals("execute"))
+                  throw new UnsupportedOperationException(name);
+               // the statement timeout the scheduler sets on open always passes.
+               if (((String) args[0]).startsWith("SET "))
+                  return false;
+               state.queries++;
+               if (state.broken)
+                  throw new SQLException("An I/O error occurred while sending to the backend", "08006");
+               return true;
+            }
+         });
+   }
+
+}//end ConnectionPoolTest
@@ -0,0 +1,179 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class checks that a columnar export decodes to the same CSV as the
+ * plain CSV export, over more than one row group, with nulls, negative
+ * deltas and text needing quotes. The rows come from a fake connection
+ * answering the DECLARE and FETCH statements of the export's cursor.
+ */
+public class HistoryExportTest extends Check {
+
+   static final String[] NAMES = { "bookingID", "customerID", "bookingDate", "updatedOn", "note" };
+   static final int[] TYPES = { Types.INTEGER, Types.INTEGER, Types.DATE, Types.TIMESTAMP, Types.VARCHAR };
+   // two full row groups and part of a third.
+   static final int ROWS = 2 * HistoryExport.ROW_GROUP + 100;
+
+   private final List<Object[]> _rows = new ArrayList<Object[]>();
+   private int _fetches = 0;
+   private File _dir;
+
+   protected void setUp() throws Exception {
+      LocalDate day = LocalDate.of(2020, 2, 28);
+      long millis = Timestamp.valueOf("2020-02-28 12:00:00").getTime();
+      for (int i = 0; i < ROWS; i++)
+         _rows.add(new Object[] {
+            i % 3 == 0 ? -i : i,
+            i % 7 == 0 ? null : i / 2,
+            Date.valueOf(day.plusDays(i % 400 - 200)),
+            i % 11 == 0 ? null : new Timestamp(millis + (i % 5 - 2) * 3600000L),
+            i % 13 == 0 ? null : i % 2 == 0 ? "plain " + i : "a, \"quoted\" \u00e9 " + i });
+      _dir = Files.createTempDirectory("export").toFile();
+   }
+
+   protected void tearDown() {
+      for (File file : _dir.listFiles())
+         file.delete();
+      _dir.delete();
+   }
+
+   public void testColumnarDecodesToTheCsvExport() throws Exception {
+      File csv = new File(_dir, "history.csv");
+      File columnar = new File(_dir, "history.hcol.gz");
+      HistoryExport export = new HistoryExport(connection());
+      equal((long) ROWS, export.write(HistoryExport.Table.BOOKINGS, 1, LocalDate.MIN, LocalDate.MAX,
+                                      HistoryExport.Format.CSV, csv), "CSV rows");
+      equal(3, _fetches, "fetches of the CSV export");
+      _fetches = 0;
+      equal((long) ROWS, export.write(HistoryExport.Table.BOOKINGS, 1, LocalDate.MIN, LocalDate.MAX,
+                                      HistoryExport.Format.COLUMNAR, columnar), "columnar rows");
+      equal(3, _fetches, "fetches of the columnar export");
+
+      ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+      PrintStream out = new PrintStream(decoded, true, "UTF-8");
+      HistoryExport.toCsv(columnar, out);
+      out.close();
+      String expected = new String(Files.readAllBytes(csv.toPath()), StandardCharsets.UTF_8);
+      String actual = new String(decoded.toByteArray(), StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n");
+      that(expected.startsWith("bookingID,customerID,bookingDate,updatedOn,note\n"), "CSV header");
+      that(expected.contains("\"a, \"\"quoted\"\" \u00e9 1\""), "quoted text");
+      equal(ROWS + 1, expected.split("\n").length, "CSV lines");
+      equal(expected, actual, "decoded columnar export");
+   }
+
+   public void testEmptyExport() throws Exception {
+      _rows.clear();
+      File columnar = new File(_dir, "empty.hcol");
+      equal(0L, new HistoryExport(connection()).write(HistoryExport.Table.REPAIRS, 1, LocalDate.MIN, LocalDate.MAX,
+                                                      HistoryExport.Format.COLUMNAR, columnar), "rows");
+      ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+      HistoryExport.toCsv(columnar, new PrintStream(decoded, true, "UTF-8"));
+      equal("bookingID,customerID,bookingDate,updatedOn,note", decoded.toString("UTF-8").trim(), "header only");
+   }
+
+   // ---------------------------------------------------------------- fakes
+
+   private static Object fake(Class<?> type, InvocationHandler handler) {
+      return Proxy.newProxyInstance(HistoryExportTest.class.getClassLoader(), new Class<?>[] { type }, handler);
+   }
+
+   private static UnsupportedOperationException unexpected(Method method) {
+      return new UnsupportedOperationException(method.getName());
+   }
+
+   // a connection whose statements serve _rows through the export's cursor.
+   private Connection connection() {
+      return (Connection) fake(Connection.class, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getAutoCommit"))
+               return true;
+            if (name.equals("setAutoCommit") || name.equals("commit"))
+               return null;
+            if (name.equals("createStatement"))
+               return statement();
+            throw unexpected(method);
+         }
+      });
+   }
+
+   private Statement statement() {
+      final int[] position = { -1 };
+      return (Statement) fake(Statement.class, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("executeUpdate") && ((String) args[0]).startsWith("DECLARE history_export ")) {
+               position[0] = 0;
+               return 0;
+            }
+            if (name.equals("executeQuery")) {
+               equal("FETCH " + HistoryExport.ROW_GROUP + " FROM history_export", args[0], "cursor statement");
+               that(position[0] >= 0, "cursor declared");
+               int from = position[0];
+               position[0] = Math.min(_rows.size(), from + HistoryExport.ROW_GROUP);
+               _fetches++;
+               return resultSet(_rows.subList(from, position[0]));
+            }
+            if (name.equals("close"))
+               return null;
+            throw unexpected(method);
+         }
+      });
+   }
+
+   private static ResultSet resultSet(final List<Object[]> rows) {
+      final ResultSetMetaData metaData = (ResultSetMetaData) fake(ResultSetMetaData.class, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getColumnCount"))
+               return NAMES.length;
+            if (name.equals("getColumnName"))
+               return NAMES[(Integer) args[0] - 1];
+            if (name.equals("getColumnType"))
+               return TYPES[(Integer) args[0] - 1];
+            throw unexpected(method);
+         }
+      });
+      final int[] row = { -1 };
+      final boolean[] wasNull = { false };
+      return (ResultSet) fake(ResultSet.class, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("next"))
+               return ++row[0] < rows.size();
+            if (name.equals("getMetaData"))
+               return metaData;
+            if (name.equals("wasNull"))
+               return wasNull[0];
+            if (name.equals("close"))
+               return null;
+            Object value = rows.get(row[0])[(Integer) args[0] - 1];
+            wasNull[0] = value == null;
+            if (name.equals("getLong"))
+               return value == null ? 0L : ((Integer) value).longValue();
+            if (name.equals("getString"))
+               return value == null ? null : value.toString();
+            if (name.equals("getDate") || name.equals("getTimestamp"))
+               return value;
+            throw unexpected(method);
+         }
+      });
+   }
+
+}//end HistoryExportTest
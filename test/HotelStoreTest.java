@@ -0,0 +1,164 @@
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class holds the cases every HotelStore must pass; MemoryStoreTest
+ * and PostgresStoreTest run them against their store. The stores start
+ * from the rows of project/data, which load_data.sql loads as well; the
+ * cases only add rows, so they can run again on the same database.
+ */
+public abstract class HotelStoreTest extends Check {
+
+   // rows of project/data: hotel 1 has rooms 1 to 10 and is managed by
+   // user 25; user 20 manages other hotels; user 2 is a customer.
+   static final int HOTEL = 1;
+   static final int MANAGER = 25;
+   static final int OTHER_MANAGER = 20;
+   static final int CUSTOMER = 2;
+   static final int COMPANY = 1;
+   static final int NO_ROOM = 9999;
+   static final int NO_COMPANY = 9999;
+   static final int NO_USER = 999999;
+
+   private HotelStore _store;
+
+   /**
+    * @return the store to test, holding the rows of project/data
+    */
+   protected abstract HotelStore open() throws Exception;
+
+   protected void setUp() throws Exception {
+      _store = open();
+   }
+
+   protected void tearDown() throws Exception {
+      if (_store != null)
+         _store.close();
+   }
+
+   // a day far ahead, different on each run so reruns find the rooms free.
+   static LocalDate someDay() {
+      return LocalDate.now().plusYears(2).plusDays(new Random().nextInt(5 * 365));
+   }
+
+   // a room of HOTEL free on the day.
+   private int freeRoom(LocalDate day) throws Exception {
+      List<HotelStore.Room> free = _store.bookings().available(HOTEL, day);
+      that(!free.isEmpty(), "a free room on " + day);
+      return free.get(0).roomNumber;
+   }
+
+   public void testLogInChecksThePassword() throws Exception {
+      int userID = _store.users().create("Tess", "secret", "customer");
+      HotelStore.User user = _store.users().logIn(userID, "secret");
+      that(user != null, "logged in");
+      equal("Tess", user.name, "name");
+      equal("customer", user.userType, "userType");
+      equal(null, _store.users().logIn(userID, "wrong"), "wrong password");
+      equal(null, _store.users().logIn(NO_USER, "secret"), "unknown user");
+   }
+
+   public void testManagedHotels() throws Exception {
+      that(_store.hotels().managedBy(MANAGER).contains(HOTEL), "hotel of its manager");
+      that(_store.hotels().isManagedBy(HOTEL, MANAGER), "isManagedBy its manager");
+      that(!_store.hotels().isManagedBy(HOTEL, OTHER_MANAGER), "not managed by another manager");
+   }
+
+   public void testRoomUpdateIsCompareAndSet() throws Exception {
+      HotelStore.Room room = _store.rooms().find(HOTEL, 1);
+      HotelStore.Room updated = _store.rooms().update(room, room.price + 1, "img");
+      that(updated != null, "updated");
+      equal(room.price + 1, updated.price, "price");
+      equal(room.version + 1, updated.version, "version");
+      equal(null, _store.rooms().update(room, room.price, "stale"), "update of a stale version");
+      equal(null, _store.rooms().find(HOTEL, NO_ROOM), "unknown room");
+   }
+
+   public void testBookingIsExclusive() throws Exception {
+      LocalDate day = someDay();
+      int roomNumber = freeRoom(day);
+      HotelStore.Room room = _store.bookings().book(CUSTOMER, HOTEL, roomNumber, day);
+      that(room != null, "booked");
+      equal(roomNumber, room.roomNumber, "room booked");
+      equal(null, _store.bookings().book(CUSTOMER, HOTEL, roomNumber, day), "second booking");
+      for (HotelStore.Room free : _store.bookings().available(HOTEL, day))
+         that(free.roomNumber != roomNumber, "booked room not available");
+
+      HotelStore.Booking latest = _store.bookings().recentOfCustomer(CUSTOMER, 1).get(0);
+      that(!latest.bookingDate.isBefore(day), "latest booking first");
+      boolean listed = false;
+      for (HotelStore.Booking booking : _store.bookings().ofHotel(HOTEL, day, day)) {
+         equal(day, booking.bookingDate, "bookingDate in range");
+         if (booking.roomNumber == roomNumber) {
+            equal(CUSTOMER, booking.customerID, "customerID");
+            equal("Amy", booking.customerName, "customerName");
+            listed = true;
+         }//end if
+      }
+      that(listed, "booking listed for the hotel");
+   }
+
+   public void testBookUnknownRoomOrCustomer() throws Exception {
+      LocalDate day = someDay();
+      equal(null, _store.bookings().book(CUSTOMER, HOTEL, NO_ROOM, day), "unknown room");
+      int roomNumber = freeRoom(day);
+      equal(null, _store.bookings().book(NO_USER, HOTEL, roomNumber, day), "unknown customer");
+      that(_store.bookings().book(CUSTOMER, HOTEL, roomNumber, day) != null, "room still free");
+   }
+
+   public void testTopCustomers() throws Exception {
+      int userID = _store.users().create("Theo", "secret", "customer");
+      LocalDate day = someDay();
+      for (int i = 0; i < 3; i++)
+         that(_store.bookings().book(userID, HOTEL, freeRoom(day.plusDays(i)), day.plusDays(i)) != null, "booked");
+      List<int[]> top = _store.bookings().topCustomers(HOTEL, 1000);
+      boolean listed = false;
+      for (int i = 0; i < top.size(); i++) {
+         if (i > 0)
+            that(top.get(i - 1)[1] > top.get(i)[1]
+                 || top.get(i - 1)[1] == top.get(i)[1] && top.get(i - 1)[0] < top.get(i)[0],
+                 "most bookings first, then lower customerID");
+         if (top.get(i)[0] == userID) {
+            equal(3, top.get(i)[1], "bookings of the new customer");
+            listed = true;
+         }//end if
+      }
+      that(listed, "new customer listed");
+      equal(1, _store.bookings().topCustomers(HOTEL, 1).size(), "limit");
+   }
+
+   public void testLoggedUpdateIsRecent() throws Exception {
+      _store.updates().log(MANAGER, HOTEL, 7);
+      HotelStore.RoomUpdate latest = _store.updates().recentOfManager(MANAGER, 1).get(0);
+      equal(MANAGER, latest.managerID, "managerID");
+      equal(HOTEL, latest.hotelID, "hotelID");
+      equal(7, latest.roomNumber, "roomNumber");
+   }
+
+   public void testRepairRequest() throws Exception {
+      int before = _store.repairs().ofManager(MANAGER).size();
+      int repairID = _store.repairs().request(MANAGER, HOTEL, 2, COMPANY);
+      that(repairID != -1, "placed");
+      List<HotelStore.Repair> repairs = _store.repairs().ofManager(MANAGER);
+      equal(before + 1, repairs.size(), "repairs of the manager");
+      equal(repairID, repairs.get(0).repairID, "latest repair first");
+      equal(LocalDate.now(), repairs.get(0).repairDate, "repairDate");
+   }
+
+   public void testRepairRequestRefused() throws Exception {
+      int before = _store.repairs().ofManager(MANAGER).size();
+      equal(-1, _store.repairs().request(OTHER_MANAGER, HOTEL, 2, COMPANY), "hotel not managed");
+      equal(-1, _store.repairs().request(MANAGER, HOTEL, NO_ROOM, COMPANY), "unknown room");
+      equal(-1, _store.repairs().request(MANAGER, HOTEL, 2, NO_COMPANY), "unknown company");
+      equal(before, _store.repairs().ofManager(MANAGER).size(), "nothing placed");
+   }
+
+   public void testRepairRequestsSkipUnknownRooms() throws Exception {
+      int before = _store.repairs().ofManager(MANAGER).size();
+      equal(2, _store.repairs().requestAll(MANAGER, HOTEL, new int[] { 3, NO_ROOM, 4 }, COMPANY), "placed");
+      equal(before + 2, _store.repairs().ofManager(MANAGER).size(), "repairs of the manager");
+      equal(0, _store.repairs().requestAll(OTHER_MANAGER, HOTEL, new int[] { 3, 4 }, COMPANY), "hotel not managed");
+   }
+
+}//end HotelStoreTest
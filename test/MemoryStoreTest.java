@@ -0,0 +1,13 @@
+import java.io.File;
+
+/**
+ * This class runs the HotelStore cases against MemoryStore, loaded from
+ * project/data or -Dhotel.test.data.
+ */
+public class MemoryStoreTest extends HotelStoreTest {
+
+   protected HotelStore open() throws Exception {
+      return MemoryStore.load(new File(System.getProperty("hotel.test.data", "project/data")));
+   }
+
+}//end MemoryStoreTest
@@ -0,0 +1,77 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+
+/**
+ * This class checks the statement shapes of OperationTracer, the repeats
+ * it reports as N+1 and the round trip budgets.
+ */
+public class OperationTracerTest extends Check {
+
+   public void testShapeTakesOutLiterals() {
+      equal("SELECT * FROM Rooms WHERE hotelID = ? AND roomNumber = ?",
+            OperationTracer.shape("SELECT * FROM Rooms WHERE hotelID = '12' AND roomNumber = '3'"), "quoted numbers");
+      equal("SELECT userID FROM USERS WHERE name = ?",
+            OperationTracer.shape("SELECT userID FROM USERS WHERE name = 'O''Brien'"), "escaped quote");
+      equal("SELECT hotelID FROM Hotel WHERE latitude BETWEEN ? AND ? LIMIT ?",
+            OperationTracer.shape("SELECT hotelID FROM Hotel WHERE latitude BETWEEN 40.5 AND 41.25 LIMIT 10"),
+            "bare numbers");
+      equal("SELECT * FROM roombookings_y2020", OperationTracer.shape("SELECT * FROM roombookings_y2020"),
+            "digits of a name kept");
+      equal("DELETE FROM Rooms WHERE roomNumber IN (?) AND imageURL IN (?)",
+            OperationTracer.shape("DELETE FROM Rooms WHERE roomNumber IN (1, 2,3) AND imageURL IN ( 'a','b' )"),
+            "lists");
+      equal("SELECT ? FROM Users", OperationTracer.shape("  SELECT  1\r\n\tFROM   Users \n"), "whitespace");
+      equal(OperationTracer.shape("UPDATE Rooms SET price = '100' WHERE hotelID = '1'"),
+            OperationTracer.shape("UPDATE Rooms SET price = '250' WHERE hotelID = '7'"), "same shape");
+   }
+
+   public void testRepeatsWithinOneInvocationAreReported() throws Exception {
+      OperationTracer tracer = new OperationTracer(null);
+      tracer.begin("viewRooms");
+      for (int i = 0; i < OperationTracer.REPEAT_THRESHOLD; i++)
+         tracer.record("SELECT price FROM Rooms WHERE roomNumber = '" + i + "'", 1, 1000);
+      tracer.record("SELECT 1", 1, 1000);
+      tracer.begin("bookRooms");
+      for (int i = 0; i < OperationTracer.REPEAT_THRESHOLD - 1; i++)
+         tracer.record("SELECT price FROM Rooms WHERE roomNumber = '" + i + "'", 1, 1000);
+      tracer.end();
+      String report = report(tracer);
+      that(report.contains("op,viewRooms,1,4,4,4,0,,\n"), report);
+      that(report.contains("repeat,viewRooms," + OperationTracer.REPEAT_THRESHOLD
+                           + ",\"SELECT price FROM Rooms WHERE roomNumber = ?\"\n"), report);
+      that(!report.contains("repeat,bookRooms"), "under the threshold: " + report);
+   }
+
+   public void testBudgets() throws Exception {
+      File budgets = File.createTempFile("budgets", ".properties");
+      try {
+         FileWriter out = new FileWriter(budgets);
+         out.write("viewRooms = 2\n");
+         out.close();
+         OperationTracer tracer = new OperationTracer(budgets);
+         tracer.begin("viewRooms");
+         tracer.record("SELECT 1", 1, 0);
+         tracer.record("SELECT 2", 1, 0);
+         tracer.end();
+         that(!tracer.overBudget(), "within budget");
+         tracer.begin("viewRooms");
+         for (int i = 0; i < 3; i++)
+            tracer.record("SELECT " + i, 1, 0);
+         tracer.end();
+         that(tracer.overBudget(), "over budget");
+         that(report(tracer).contains("op,viewRooms,2,5,3,5,0,2,over\n"), report(tracer));
+      } finally {
+         budgets.delete();
+      }
+   }
+
+   private static String report(OperationTracer tracer) throws Exception {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      PrintStream out = new PrintStream(bytes, true, "UTF-8");
+      tracer.report(out);
+      return bytes.toString("UTF-8").replace(System.lineSeparator(), "\n");
+   }
+
+}//end OperationTracerTest
@@ -0,0 +1,35 @@
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * This class checks the stored form of PasswordHash, and that hashes made
+ * with an older iteration count still verify.
+ */
+public class PasswordHashTest extends Check {
+
+   public void testHashVerifies() {
+      String stored = PasswordHash.hash("secret");
+      that(stored.startsWith("pbkdf2$" + PasswordHash.ITERATIONS + "$"), "stored form " + stored);
+      that(PasswordHash.isHash(stored), "isHash");
+      that(PasswordHash.verify("secret", stored), "right password");
+      that(!PasswordHash.verify("Secret", stored), "wrong password");
+      that(!stored.equals(PasswordHash.hash("secret")), "salted");
+   }
+
+   public void testOlderIterationCountVerifies() throws Exception {
+      byte[] salt = new byte[PasswordHash.SALT_BYTES];
+      byte[] hash = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256")
+         .generateSecret(new PBEKeySpec("secret".toCharArray(), salt, 20000, PasswordHash.HASH_BITS)).getEncoded();
+      Base64.Encoder base64 = Base64.getEncoder();
+      String stored = "pbkdf2$20000$" + base64.encodeToString(salt) + "$" + base64.encodeToString(hash);
+      that(PasswordHash.verify("secret", stored), "hash of 20000 iterations");
+      that(!PasswordHash.verify("other", stored), "wrong password");
+   }
+
+   public void testPlaintextIsNoHash() {
+      that(!PasswordHash.isHash("xyz"), "plaintext");
+      that(!PasswordHash.verify("xyz", "xyz"), "plaintext never verifies");
+   }
+
+}//end PasswordHashTest
@@ -0,0 +1,20 @@
+/**
+ * This class runs the HotelStore cases against PostgresStore. It needs a
+ * database made with create_tables.sql and load_data.sql, named by
+ * -Dhotel.test.db=<dbname>:<port>:<user>; without it the cases are skipped.
+ * Audit rows are committed before log() returns, so they can be read back.
+ */
+public class PostgresStoreTest extends HotelStoreTest {
+
+   protected String skipReason() {
+      return System.getProperty("hotel.test.db") == null ? "no -Dhotel.test.db" : null;
+   }
+
+   protected HotelStore open() throws Exception {
+      String[] db = System.getProperty("hotel.test.db").split(":");
+      System.setProperty("hotel.audit.durability", "commit");
+      Class.forName("org.postgresql.Driver");
+      return new Hotel(db[0], db[1], db[2], "").store();
+   }
+
+}//end PostgresStoreTest
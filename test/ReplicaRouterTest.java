@@ -0,0 +1,141 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class checks where ReplicaRouter sends reads: to a standby that has
+ * replayed the session's last write and lags less than the limit, otherwise
+ * to the primary. The primary and the standby are fakes answering the
+ * router's WAL position queries from the fields below.
+ */
+public class ReplicaRouterTest extends Check {
+
+   static final long MAX_LAG_MILLIS = 5000;
+
+   // what the fake standby reports.
+   private boolean _inRecovery = true;
+   private boolean _replayed = true;
+   private double _lagMillis = 0;
+   private boolean _replicaDown = false;
+   // queries the fake standby was asked.
+   private final List<String> _replicaQueries = new ArrayList<String>();
+
+   private Connection _primary;
+   private Connection _replica;
+
+   protected void setUp() {
+      _primary = connection(false);
+      _replica = connection(true);
+   }
+
+   public void testReadsGoToACurrentStandby() {
+      ReplicaRouter router = new ReplicaRouter(_primary, _replica, MAX_LAG_MILLIS);
+      equal(_replica, router.forRead(), "read connection");
+      that(_replicaQueries.get(0).contains("true, "), "no write position yet: " + _replicaQueries.get(0));
+      equal(_primary, router.primary(), "primary");
+   }
+
+   public void testReadsStayOnThePrimaryUntilTheWriteIsReplayed() throws Exception {
+      ReplicaRouter router = new ReplicaRouter(_primary, _replica, MAX_LAG_MILLIS);
+      equal(_replica, router.forRead(), "read before the write");
+      router.wrote();
+      _replayed = false;
+      equal(_primary, router.forRead(), "read before the standby replays the write");
+      that(_replicaQueries.get(1).contains("pg_last_wal_replay_lsn() >= '0/3000060'::pg_lsn"),
+           "write position compared: " + _replicaQueries.get(1));
+      _replayed = true;
+      equal(_primary, router.forRead(), "read within the check interval");
+      Thread.sleep(ReplicaRouter.LAG_CHECK_MILLIS + 50);
+      equal(_replica, router.forRead(), "read after the standby replays the write");
+   }
+
+   public void testLaggingStandbyFallsBackToThePrimary() throws Exception {
+      _lagMillis = MAX_LAG_MILLIS + 1;
+      ReplicaRouter router = new ReplicaRouter(_primary, _replica, MAX_LAG_MILLIS);
+      equal(_primary, router.forRead(), "read from a lagging standby");
+      _lagMillis = MAX_LAG_MILLIS;
+      Thread.sleep(ReplicaRouter.LAG_CHECK_MILLIS + 50);
+      equal(_replica, router.forRead(), "read once the standby caught up");
+   }
+
+   public void testUnknownOrFailingReplicaIsNotUsed() throws Exception {
+      _inRecovery = false;
+      equal(_primary, new ReplicaRouter(_primary, _replica, MAX_LAG_MILLIS).forRead(), "not a standby");
+      _inRecovery = true;
+      _replicaDown = true;
+      equal(_primary, new ReplicaRouter(_primary, _replica, MAX_LAG_MILLIS).forRead(), "replica failing");
+   }
+
+   public void testStandaloneReplicaServesReadsAwayFromWrites() throws Exception {
+      _inRecovery = false;
+      ReplicaRouter router = new ReplicaRouter(_primary, _replica, 200, true);
+      equal(_replica, router.forRead(), "read before any write");
+      router.wrote();
+      equal(_primary, router.forRead(), "read right after a write");
+      Thread.sleep(250);
+      equal(_replica, router.forRead(), "read once the write is older than the limit");
+      equal(0, _replicaQueries.size(), "queries of a standalone replica");
+   }
+
+   // ---------------------------------------------------------------- fakes
+
+   private static Object fake(Class<?> type, InvocationHandler handler) {
+      return Proxy.newProxyInstance(ReplicaRouterTest.class.getClassLoader(), new Class<?>[] { type }, handler);
+   }
+
+   private Connection connection(final boolean replica) {
+      return (Connection) fake(Connection.class, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("createStatement"))
+               return statement(replica);
+            if (method.getName().equals("equals"))
+               return proxy == args[0];
+            throw new UnsupportedOperationException(method.getName());
+         }
+      });
+   }
+
+   private Statement statement(final boolean replica) {
+      return (Statement) fake(Statement.class, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+            if (method.getName().equals("close"))
+               return null;
+            if (!method.getName().equals("executeQuery"))
+               throw new UnsupportedOperationException(method.getName());
+            String query = (String) args[0];
+            if (!replica) {
+               equal("SELECT pg_current_wal_lsn()::text", query, "primary query");
+               return row(new Object[] { "0/3000060" });
+            }
+            _replicaQueries.add(query);
+            if (_replicaDown)
+               throw new SQLException("connection refused", "08001");
+            return row(new Object[] { _inRecovery, _replayed, _lagMillis });
+         }
+      });
+   }
+
+   private static ResultSet row(final Object[] values) {
+      final boolean[] read = { false };
+      return (ResultSet) fake(ResultSet.class, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("next")) {
+               boolean first = !read[0];
+               read[0] = true;
+               return first;
+            }
+            if (name.equals("getString") || name.equals("getBoolean") || name.equals("getDouble"))
+               return values[(Integer) args[0] - 1];
+            throw new UnsupportedOperationException(name);
+         }
+      });
+   }
+
+}//end ReplicaRouterTest
@@ -0,0 +1,47 @@
+import java.util.Arrays;
+
+/**
+ * This class checks that sessions are found by their token until they go
+ * unused for the TTL, and never after they expired or were closed.
+ */
+public class SessionStoreTest extends Check {
+
+   static final long TTL_MILLIS = 300;
+
+   private final SessionStore _sessions = new SessionStore(TTL_MILLIS);
+   private final HotelStore.User _user = new HotelStore.User(25, "Manager", "manager");
+
+   public void testOpenedSessionIsFound() {
+      Session session = _sessions.open(_user, Arrays.asList(1, 2));
+      that(_sessions.get(session.token) == session, "found by its token");
+      equal(25, session.userID, "userID");
+      that(session.manages(2) && !session.manages(3), "managed hotels");
+      that(!session.token.equals(_sessions.open(_user, Arrays.asList(1)).token), "tokens differ");
+      equal(null, _sessions.get("unknown"), "unknown token");
+      equal(null, _sessions.get(null), "no token");
+   }
+
+   public void testSessionExpiresWhenUnused() throws Exception {
+      Session session = _sessions.open(_user, Arrays.asList(1));
+      Thread.sleep(2 * TTL_MILLIS);
+      equal(null, _sessions.get(session.token), "expired");
+      equal(null, _sessions.get(session.token), "still expired");
+   }
+
+   public void testLookupMovesTheExpiry() throws Exception {
+      Session session = _sessions.open(_user, Arrays.asList(1));
+      for (int i = 0; i < 4; i++) {
+         Thread.sleep(TTL_MILLIS / 2);
+         that(_sessions.get(session.token) == session, "in use after " + (i + 1) * TTL_MILLIS / 2 + " ms");
+      }
+      Thread.sleep(2 * TTL_MILLIS);
+      equal(null, _sessions.get(session.token), "expired once unused");
+   }
+
+   public void testClosedSessionIsGone() {
+      Session session = _sessions.open(_user, Arrays.asList(1));
+      _sessions.close(session.token);
+      equal(null, _sessions.get(session.token), "closed");
+   }
+
+}//end SessionStoreTest
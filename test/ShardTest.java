@@ -0,0 +1,163 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class runs ShardTool and ShardedStore against the databases named by
+ * -Dhotel.test.shards=<dbname>:<port>:<user>,<dbname>:<port>:<user>,...,
+ * shard 0 first; without it the cases are skipped. Every shard is made with
+ * create_tables.sql and load_data.sql; each case runs init first, which
+ * leaves a shard holding only its own hotels and can run again. Moves wait
+ * for clients to reread the map, so the move case takes about a minute.
+ */
+public class ShardTest extends Check {
+
+   private List<Hotel> _shards;
+   private ShardTool _tool;
+   private ShardedStore _store;
+
+   protected String skipReason() {
+      return System.getProperty("hotel.test.shards") == null ? "no -Dhotel.test.shards" : null;
+   }
+
+   protected void setUp() throws Exception {
+      Class.forName("org.postgresql.Driver");
+      _shards = new ArrayList<Hotel>();
+      for (String shard : System.getProperty("hotel.test.shards").split(",")) {
+         String[] db = shard.trim().split(":");
+         _shards.add(new Hotel(db[0], db[1], db[2], ""));
+      }
+      that(_shards.size() >= 2, "at least two shards");
+      _tool = new ShardTool(_shards);
+      _tool.init();
+      _store = new ShardedStore(_shards);
+   }
+
+   protected void tearDown() {
+      if (_store != null)
+         _store.close();
+      if (_shards != null)
+         for (Hotel shard : _shards)
+            shard.cleanup();
+   }
+
+   private int[][] map() throws SQLException {
+      return ShardedStore.readMap(_shards.get(0), _shards.size());
+   }
+
+   private static int count(Hotel shard, String table, String filter) throws SQLException {
+      return Integer.parseInt(shard.executeQueryAndReturnResult(
+         "SELECT count(*) FROM " + table + " WHERE " + filter).get(0).get(0));
+   }
+
+   private static List<Integer> hotels(Hotel shard, int bucket) throws SQLException {
+      List<Integer> hotels = new ArrayList<Integer>();
+      for (List<String> row : shard.executeQueryAndReturnResult("SELECT hotelID FROM Hotel")) {
+         int hotelID = Integer.parseInt(row.get(0));
+         if (bucket < 0 || ShardedStore.bucket(hotelID) == bucket)
+            hotels.add(hotelID);
+      }
+      return hotels;
+   }
+
+   // rows of every hotel table for the hotels on the shard, in ShardTool.HOTEL_TABLES order.
+   private static int[] rows(Hotel shard, List<Integer> hotelIDs) throws SQLException {
+      String ids = hotelIDs.toString().replace("[", "").replace("]", "");
+      int[] rows = new int[ShardTool.HOTEL_TABLES.length];
+      for (int t = 0; t < rows.length; t++)
+         rows[t] = count(shard, ShardTool.HOTEL_TABLES[t][0], String.format(ShardTool.HOTEL_TABLES[t][1], ids));
+      return rows;
+   }
+
+   public void testHotelsLiveOnTheirShard() throws Exception {
+      int[] bucketShard = map()[0];
+      for (int i = 0; i < _shards.size(); i++)
+         for (int hotelID : hotels(_shards.get(i), -1))
+            equal(i, bucketShard[ShardedStore.bucket(hotelID)], "shard of hotel " + hotelID);
+      int shard = bucketShard[ShardedStore.bucket(HotelStoreTest.HOTEL)];
+      equal(1, count(_shards.get(shard), "Hotel", "hotelID = " + HotelStoreTest.HOTEL), "hotel on its shard");
+      HotelStore.Room room = _store.rooms().find(HotelStoreTest.HOTEL, 1);
+      that(room != null, "room found through its shard");
+      equal(HotelStoreTest.HOTEL, room.hotelID, "hotelID");
+   }
+
+   public void testQueriesAcrossShardsAreMerged() throws Exception {
+      int total = 0;
+      for (Hotel shard : _shards)
+         total += hotels(shard, -1).size();
+      List<HotelStore.HotelInfo> near = _store.hotels().near(0, 0, 1e9);
+      equal(total, near.size(), "hotels of every shard");
+      for (int i = 1; i < near.size(); i++)
+         that(MemoryStore.distance(0, 0, near.get(i - 1)) <= MemoryStore.distance(0, 0, near.get(i)), "nearest first");
+
+      List<Integer> managed = _store.hotels().managedBy(HotelStoreTest.MANAGER);
+      that(managed.contains(HotelStoreTest.HOTEL), "hotel of its manager");
+      for (int i = 1; i < managed.size(); i++)
+         that(managed.get(i - 1) < managed.get(i), "hotels in order");
+
+      List<HotelStore.Booking> recent = _store.bookings().recentOfCustomer(HotelStoreTest.CUSTOMER, 5);
+      that(recent.size() <= 5, "limit");
+      for (int i = 1; i < recent.size(); i++)
+         that(!recent.get(i - 1).bookingDate.isBefore(recent.get(i).bookingDate), "latest booking first");
+   }
+
+   public void testNewUserIsOnEveryShard() throws Exception {
+      int userID = _store.users().create("Sam", "secret", "customer");
+      for (int i = 0; i < _shards.size(); i++)
+         equal(1, count(_shards.get(i), "Users", "userID = " + userID), "user on shard " + i);
+      that(_store.users().logIn(userID, "secret") != null, "logged in");
+   }
+
+   public void testMovingBucketRefusesWrites() throws Exception {
+      int bucket = ShardedStore.bucket(HotelStoreTest.HOTEL);
+      _shards.get(0).executeUpdate(String.format("UPDATE ShardMap SET moving = true WHERE bucket = '%d'", bucket));
+      ShardedStore store = new ShardedStore(_shards);
+      try {
+         HotelStore.Room room = store.rooms().find(HotelStoreTest.HOTEL, 1);
+         that(room != null, "hotel still readable");
+         try {
+            store.rooms().update(room, room.price, room.imageURL);
+            that(false, "write to a moving hotel");
+         } catch (SQLException e) {
+            that(e.getMessage().contains("is being moved"), e.getMessage());
+         }
+      } finally {
+         _shards.get(0).executeUpdate(String.format("UPDATE ShardMap SET moving = false WHERE bucket = '%d'", bucket));
+         store.close();
+      }
+   }
+
+   public void testMoveAndRebalance() throws Exception {
+      int bucket = ShardedStore.bucket(HotelStoreTest.HOTEL);
+      int source = map()[0][bucket];
+      int target = (source + 1) % _shards.size();
+      List<Integer> moved = hotels(_shards.get(source), bucket);
+      int[] before = rows(_shards.get(source), moved);
+      equal(0, rows(_shards.get(target), moved)[0], "hotels on the target before the move");
+
+      _tool.move(bucket, target);
+      int[][] map = map();
+      equal(target, map[0][bucket], "shard of the bucket");
+      equal(0, map[1][bucket], "bucket no longer moving");
+      int[] after = rows(_shards.get(target), moved);
+      int[] left = rows(_shards.get(source), moved);
+      for (int t = 0; t < before.length; t++) {
+         equal(before[t], after[t], ShardTool.HOTEL_TABLES[t][0] + " rows on the target");
+         equal(0, left[t], ShardTool.HOTEL_TABLES[t][0] + " rows left on the source");
+      }
+      ShardedStore store = new ShardedStore(_shards);
+      try {
+         that(store.rooms().find(HotelStoreTest.HOTEL, 1) != null, "room found on the new shard");
+      } finally {
+         store.close();
+      }
+
+      _tool.rebalance();
+      int[] counts = new int[_shards.size()];
+      for (int shard : map()[0])
+         counts[shard]++;
+      for (int i = 1; i < counts.length; i++)
+         that(Math.abs(counts[i] - counts[0]) <= 1, "buckets per shard after rebalance");
+   }
+
+}//end ShardTest
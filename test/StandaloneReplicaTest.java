@@ -0,0 +1,70 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * This class runs ReplicaRouter against two local Postgres instances: the
+ * database of -Dhotel.test.db=<dbname>:<port>:<user> as the primary and a
+ * plain second instance named by -Dhotel.test.replica=<dbname>:<port>:<user>
+ * as a standalone replica. Without both the cases are skipped.
+ */
+public class StandaloneReplicaTest extends Check {
+
+   static final long MAX_LAG_MILLIS = 300;
+
+   private Connection _primary;
+   private Connection _replica;
+
+   protected String skipReason() {
+      if (System.getProperty("hotel.test.db") == null)
+         return "no -Dhotel.test.db";
+      return System.getProperty("hotel.test.replica") == null ? "no -Dhotel.test.replica" : null;
+   }
+
+   protected void setUp() throws Exception {
+      Class.forName("org.postgresql.Driver");
+      _primary = open(System.getProperty("hotel.test.db"));
+      _replica = open(System.getProperty("hotel.test.replica"));
+   }
+
+   protected void tearDown() throws Exception {
+      if (_primary != null)
+         _primary.close();
+      if (_replica != null)
+         _replica.close();
+   }
+
+   private static Connection open(String db) throws Exception {
+      String[] parts = db.split(":");
+      return DriverManager.getConnection("jdbc:postgresql://localhost:" + parts[1] + "/" + parts[0], parts[2], "");
+   }
+
+   private static String port(Connection connection) throws Exception {
+      Statement stmt = connection.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery("SHOW port");
+         rs.next();
+         return rs.getString(1);
+      } finally {
+         stmt.close();
+      }
+   }
+
+   public void testReadsGoToTheReplicaAwayFromWrites() throws Exception {
+      that(!port(_primary).equals(port(_replica)), "two instances");
+      String replicaPort = port(_replica);
+      ReplicaRouter router = new ReplicaRouter(_primary, _replica, MAX_LAG_MILLIS, true);
+      equal(replicaPort, port(router.forRead()), "read before any write");
+      router.wrote();
+      equal(port(_primary), port(router.forRead()), "read right after a write");
+      Thread.sleep(MAX_LAG_MILLIS + 50);
+      equal(replicaPort, port(router.forRead()), "read once the write is older than the limit");
+   }
+
+   public void testPlainInstanceIsNotTakenForAStandby() throws Exception {
+      ReplicaRouter router = new ReplicaRouter(_primary, _replica, MAX_LAG_MILLIS);
+      equal(port(_primary), port(router.forRead()), "read without the standalone opt-in");
+   }
+
+}//end StandaloneReplicaTest
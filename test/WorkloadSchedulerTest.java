@@ -0,0 +1,164 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class checks that a full workload class turns work away at once,
+ * without holding up the other class, and how the outcomes are counted.
+ * Connections are fakes that only record the statements they run.
+ */
+public class WorkloadSchedulerTest extends Check {
+
+   private final List<String> _statements = Collections.synchronizedList(new ArrayList<String>());
+   private WorkloadScheduler _scheduler;
+
+   protected void setUp() {
+      Map<WorkloadScheduler.Workload, WorkloadScheduler.Budget> budgets =
+         new EnumMap<WorkloadScheduler.Workload, WorkloadScheduler.Budget>(WorkloadScheduler.Workload.class);
+      budgets.put(WorkloadScheduler.Workload.INTERACTIVE, new WorkloadScheduler.Budget(1, 4, 1000));
+      budgets.put(WorkloadScheduler.Workload.REPORTING, new WorkloadScheduler.Budget(1, 1, 60000));
+      _scheduler = new WorkloadScheduler(new ConnectionPool.Factory() {
+         public Connection open() {
+            return connection();
+         }
+      }, budgets);
+   }
+
+   protected void tearDown() {
+      _scheduler.close();
+   }
+
+   public void testFullClassRejectsWithoutBlockingTheOther() throws Exception {
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch running = new CountDownLatch(1);
+      WorkloadScheduler.Work<String> blocked = new WorkloadScheduler.Work<String>() {
+         public String run(Connection connection) {
+            running.countDown();
+            try {
+               release.await();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+            return "report";
+         }
+      };
+      // one report runs, one waits in the queue of one, the third is turned away.
+      CompletableFuture<String> first = _scheduler.submit(WorkloadScheduler.Workload.REPORTING, blocked);
+      that(running.await(5, TimeUnit.SECONDS), "first report running");
+      CompletableFuture<String> second = _scheduler.submit(WorkloadScheduler.Workload.REPORTING, blocked);
+      CompletableFuture<String> third = _scheduler.submit(WorkloadScheduler.Workload.REPORTING, blocked);
+      that(third.isCompletedExceptionally(), "third report rejected at once");
+      try {
+         third.join();
+         that(false, "rejected work has no result");
+      } catch (CompletionException e) {
+         that(e.getCause() instanceof SQLException, "rejection is an SQLException");
+         that(e.getCause().getMessage().startsWith("Too many reporting operations"), e.getCause().getMessage());
+      }
+      equal(1, _scheduler.queued(WorkloadScheduler.Workload.REPORTING), "reports queued");
+
+      // interactive work still runs while the reporting class is full.
+      equal("lookup", _scheduler.submit(WorkloadScheduler.Workload.INTERACTIVE, new WorkloadScheduler.Work<String>() {
+         public String run(Connection connection) {
+            return "lookup";
+         }
+      }).get(5, TimeUnit.SECONDS), "interactive result");
+
+      release.countDown();
+      equal("report", first.get(5, TimeUnit.SECONDS), "first report");
+      equal("report", second.get(5, TimeUnit.SECONDS), "queued report");
+      String[] reporting = line("reporting");
+      equal("2", reporting[4], "reports completed");
+      equal("1", reporting[7], "reports rejected");
+      equal("1", reporting[8], "most reports queued");
+      equal("1", line("interactive")[4], "interactive completed");
+   }
+
+   public void testFailuresAndTimeoutsAreCounted() throws Exception {
+      final String[] states = { "57014", "23505" };
+      for (final String state : states) {
+         CompletableFuture<Object> result = _scheduler.submit(WorkloadScheduler.Workload.INTERACTIVE,
+            new WorkloadScheduler.Work<Object>() {
+               public Object run(Connection connection) throws SQLException {
+                  throw new SQLException("failed", state);
+               }
+            });
+         try {
+            result.join();
+            that(false, "failed work has no result");
+         } catch (CompletionException e) {
+            equal(state, ((SQLException) e.getCause()).getSQLState(), "SQLState");
+         }
+      }
+      String[] interactive = line("interactive");
+      equal("1", interactive[5], "failed");
+      equal("1", interactive[6], "timed out");
+      equal("0", interactive[4], "completed");
+   }
+
+   public void testConnectionsGetTheTimeoutOfTheirClass() throws Exception {
+      for (WorkloadScheduler.Workload workload : WorkloadScheduler.Workload.values())
+         _scheduler.submit(workload, new WorkloadScheduler.Work<Object>() {
+            public Object run(Connection connection) {
+               return null;
+            }
+         }).get(5, TimeUnit.SECONDS);
+      that(_statements.contains("SET statement_timeout = 1000"), "interactive timeout in " + _statements);
+      that(_statements.contains("SET statement_timeout = 60000"), "reporting timeout in " + _statements);
+   }
+
+   // the report line of a class, split into its columns.
+   private String[] line(String workload) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      _scheduler.report(new PrintStream(bytes, true));
+      for (String line : bytes.toString().split("\\r?\\n"))
+         if (line.startsWith(workload + ","))
+            return line.split(",");
+      throw new AssertionError("no report line for " + workload);
+   }
+
+   private Connection connection() {
+      return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+         new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+               if (method.getName().equals("createStatement"))
+                  return statement();
+               if (method.getName().equals("close"))
+                  return null;
+               if (method.getName().equals("isClosed"))
+                  return false;
+               throw new UnsupportedOperationException(method.getName());
+            }
+         });
+   }
+
+   private Statement statement() {
+      return (Statement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Statement.class },
+         new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+               if (method.getName().equals("execute")) {
+                  _statements.add((String) args[0]);
+                  return false;
+               }
+               if (method.getName().equals("close"))
+                  return null;
+               throw new UnsupportedOperationException(method.getName());
+            }
+         });
+   }
+
+}//end WorkloadSchedulerTest
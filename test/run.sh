@@ -0,0 +1,12 @@
+#!/bin/bash
+# Compiles the program and the tests, then runs the tests from the top directory.
+# Database cases: test/run.sh -Dhotel.test.db=<dbname>:<port>:<user>
+# Shard cases, on databases loaded alike: -Dhotel.test.shards=<dbname>:<port>:<user>,<dbname>:<port>:<user>
+# Replica cases, with a second plain instance: -Dhotel.test.replica=<dbname>:<port>:<user>
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+cd $DIR/..
+
+CLASSES=$(mktemp -d)
+trap "rm -rf $CLASSES" EXIT
+javac -d $CLASSES *.java test/*.java || exit 1
+java -cp $CLASSES:project/java/lib/pg73jdbc3.jar "$@" Check MemoryStoreTest PostgresStoreTest HistoryExportTest SessionStoreTest PasswordHashTest WorkloadSchedulerTest ConnectionPoolTest OperationTracerTest BookingImportTest ReplicaRouterTest StandaloneReplicaTest ShardTest